@@ -28,12 +28,21 @@ public class OnEmailedNodeUpdate implements NodeServicePolicies.OnUpdateNodePoli
 	private PolicyComponent policyComponent;
 	private InvitationProcessor invitationProcessor;
 
+	// Configuration
+	private boolean enabled = true;
+
 	// Behaviours
 	private Behaviour onUpdateNode;
 
 	private Logger logger = Logger.getLogger(OnEmailedNodeUpdate.class);
 
 	public void init() {
+		if (!enabled) {
+			// inboxes are left to the scheduled sweeper
+			if (logger.isDebugEnabled()) logger.debug("Process invitation behavior is disabled");
+			return;
+		}
+
 		if (logger.isDebugEnabled()) logger.debug("Initializing process invitation behavior");
 
 		// Create behaviours
@@ -100,4 +109,12 @@ public class OnEmailedNodeUpdate implements NodeServicePolicies.OnUpdateNodePoli
 		this.invitationProcessor = invitationProcessor;
 	}
 
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
 }
@@ -34,9 +34,6 @@ public class OnSiteNodeUpdate implements NodeServicePolicies.OnUpdateNodePolicy
 	// Behaviours
 	private Behaviour onUpdateNode;
 
-	// InboundInvitesConstants
-	private final String INVITATIONS_COMPONENT_ID = "inboundInvitations";
-
 	private Logger logger = Logger.getLogger(OnSiteNodeUpdate.class);
 
 	public void init() {
@@ -63,14 +60,14 @@ public class OnSiteNodeUpdate implements NodeServicePolicies.OnUpdateNodePolicy
 		String siteId = (String) nodeService.getProperty(siteNodeRef, ContentModel.PROP_NAME);
 
 		// create a folder to hold the inbound invitations
-		NodeRef invitationsFolder = siteService.getContainer(siteId, INVITATIONS_COMPONENT_ID);
+		NodeRef invitationsFolder = siteService.getContainer(siteId, InboundInvitesConstants.INVITATIONS_COMPONENT_ID);
 		if (invitationsFolder == null) {
 			if (logger.isDebugEnabled()) logger.debug("Invitations folder does not exist, attempting to create");
 			Map<QName, Serializable> props = new HashMap<QName, Serializable>();
 			props.put(ContentModel.PROP_NAME, InboundInvitesConstants.INVITATIONS_FOLDER_NAME);
 			invitationsFolder = siteService.createContainer(
 					siteId,
-					INVITATIONS_COMPONENT_ID,
+					InboundInvitesConstants.INVITATIONS_COMPONENT_ID,
 					ContentModel.TYPE_FOLDER,
 					props
 			);
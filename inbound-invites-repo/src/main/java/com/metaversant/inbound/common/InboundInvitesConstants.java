@@ -2,4 +2,6 @@ package com.metaversant.inbound.common;
 
 public class InboundInvitesConstants {
     public final static String INVITATIONS_FOLDER_NAME = "inboundInvitations";
+    public final static String INVITATIONS_COMPONENT_ID = "inboundInvitations";
+    public final static String PROCESSED_FOLDER_NAME = "processed";
 }
@@ -0,0 +1,547 @@
+package com.metaversant.inbound.invitation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.metaversant.inbound.common.InboundInvitesConstants;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.calendar.CalendarModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.AssociationRef;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * Rebuilds a site calendar by replaying the ICS files kept in the site's
+ * processed invitations folder.
+ *
+ * The per-email folders are paged through and each page is handed to a pool
+ * of workers that find and parse the ICS files, so reading the history is
+ * not limited to a single thread. The parsed invitations are then folded per UID in sent-date
+ * order, which is the order live processing applies them in, so that each UID
+ * ends up in the state its last invitation left it in. Only the resulting
+ * differences are written to the calendar, in batched transactions.
+ * In dry-run mode the differences are reported but nothing is written.
+ *
+ * @author jpotts, Metaversant
+ */
+public class CalendarRebuilder {
+
+	// Dependencies
+	private FileFolderService fileFolderService;
+	private InvitationProcessor invitationProcessor;
+	private NodeService nodeService;
+	private SiteService siteService;
+	private TransactionService transactionService;
+
+	// Configuration
+	private int batchSize = 50;
+	private int workerThreads = 4;
+
+	// Local Constants
+	private static final int PAGE_SIZE = 100;
+	private static final int LOGGING_INTERVAL = 500;
+
+	private Logger logger = Logger.getLogger(CalendarRebuilder.class);
+
+	/**
+	 * Replays the processed invitations of a site into its calendar.
+	 *
+	 * @param site   The short name of the Share site.
+	 * @param dryRun If true, report the differences without changing anything.
+	 * @return Report describing what was (or would be) changed.
+	 */
+	public RebuildReport rebuild(final String site, final boolean dryRun) {
+		return AuthenticationUtil.runAsSystem(new RunAsWork<RebuildReport>() {
+			@Override
+			public RebuildReport doWork() throws Exception {
+				return doRebuild(site, dryRun);
+			}
+		});
+	}
+
+	private RebuildReport doRebuild(final String site, boolean dryRun) throws InterruptedException {
+		final RebuildReport report = new RebuildReport(site, dryRun);
+		logger.info("Rebuilding calendar for site " + site + (dryRun ? " (dry run)" : ""));
+
+		// find and parse every processed ICS file
+		List<ReplayEntry> entries = readAll(site, report);
+
+		// fold them into the final state of each event, oldest first
+		Collections.sort(entries, new Comparator<ReplayEntry>() {
+			@Override
+			public int compare(ReplayEntry a, ReplayEntry b) {
+				return Long.compare(a.sentTime, b.sentTime);
+			}
+		});
+		final Map<String, EventState> states = new LinkedHashMap<String, EventState>();
+		for (ReplayEntry entry : entries) {
+			if (entry.invite == null) {
+				continue;
+			}
+			EventState state = states.get(entry.invite.getId());
+			if (state == null) {
+				state = new EventState();
+				states.put(entry.invite.getId(), state);
+			}
+			state.apply(entry);
+		}
+		report.events = states.size();
+
+		// compare against what is in the calendar now
+		final NodeRef calFolder;
+		if (dryRun) {
+			calFolder = readOnly(new RetryingTransactionCallback<NodeRef>() {
+				@Override
+				public NodeRef execute() throws Throwable {
+					return siteService.getContainer(site, InvitationProcessor.CALENDAR_COMPONENT_ID);
+				}
+			});
+		} else {
+			// the calendar container is created if it has been deleted
+			calFolder = inTransaction(new RetryingTransactionCallback<NodeRef>() {
+				@Override
+				public NodeRef execute() throws Throwable {
+					return invitationProcessor.getCalendarFolder(site);
+				}
+			});
+		}
+		final Map<String, NodeRef> existing = calFolder == null ? new HashMap<String, NodeRef>() : readOnly(new RetryingTransactionCallback<Map<String, NodeRef>>() {
+			@Override
+			public Map<String, NodeRef> execute() throws Throwable {
+				return getEventsByUid(calFolder);
+			}
+		});
+
+		final boolean apply = !dryRun;
+		BatchProcessor<String> processor = new BatchProcessor<String>(
+				"InboundInvitesCalendarRebuild-" + site,
+				transactionService.getRetryingTransactionHelper(),
+				new ListWorkProvider(new ArrayList<String>(states.keySet())),
+				workerThreads,
+				batchSize,
+				null,
+				LogFactory.getLog(CalendarRebuilder.class),
+				LOGGING_INTERVAL
+		);
+		processor.process(new BatchProcessWorkerAdaptor<String>() {
+			@Override
+			public String getIdentifier(String uid) {
+				return uid;
+			}
+
+			@Override
+			public void beforeProcess() throws Throwable {
+				AuthenticationUtil.setRunAsUserSystem();
+			}
+
+			@Override
+			public void afterProcess() throws Throwable {
+				AuthenticationUtil.clearCurrentSecurityContext();
+			}
+
+			@Override
+			public void process(String uid) throws Throwable {
+				reconcile(uid, states.get(uid), existing.get(uid), calFolder, apply, report);
+			}
+		}, true);
+		report.failed.addAndGet(processor.getTotalErrors());
+
+		logger.info("Calendar rebuild for site " + site + " complete: " + report);
+		return report;
+	}
+
+	private void reconcile(String uid, EventState state, NodeRef event, NodeRef calFolder, boolean apply, RebuildReport report) {
+		if (state.deleted) {
+			if (event == null) {
+				report.unchanged.incrementAndGet();
+			} else {
+				report.addChange("delete", uid);
+				if (apply) invitationProcessor.deleteEvent(event);
+			}
+		} else if (event == null) {
+			report.addChange("create", uid);
+			if (apply) invitationProcessor.createEvent(state.creatorEmail, calFolder, state.latest);
+		} else if (!state.latest.matches(nodeService.getProperties(event))) {
+			report.addChange("update", uid);
+			if (apply) invitationProcessor.updateEvent(event, state.latest);
+		} else {
+			report.unchanged.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Pages through the per-email folders of the site's processed folder and
+	 * reads each page on the worker pool while the next page is fetched.
+	 */
+	private List<ReplayEntry> readAll(final String site, RebuildReport report) throws InterruptedException {
+		List<ReplayEntry> entries = new ArrayList<ReplayEntry>();
+		final NodeRef processed = readOnly(new RetryingTransactionCallback<NodeRef>() {
+			@Override
+			public NodeRef execute() throws Throwable {
+				NodeRef inbox = siteService.getContainer(site, InboundInvitesConstants.INVITATIONS_COMPONENT_ID);
+				return inbox == null ? null : nodeService.getChildByName(inbox, ContentModel.ASSOC_CONTAINS, InboundInvitesConstants.PROCESSED_FOLDER_NAME);
+			}
+		});
+		if (processed == null) {
+			logger.info("No processed invitations for site " + site);
+			return entries;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workerThreads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "InboundInvitesCalendarRebuild");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			List<Future<ReplayEntry>> inFlight = Collections.emptyList();
+			int skipCount = 0;
+			boolean hasMore = true;
+			while (hasMore) {
+				final PagingRequest pagingRequest = new PagingRequest(skipCount, PAGE_SIZE);
+				List<FileInfo> page = readOnly(new RetryingTransactionCallback<List<FileInfo>>() {
+					@Override
+					public List<FileInfo> execute() throws Throwable {
+						PagingResults<FileInfo> folders = fileFolderService.list(processed, false, true, null, null, pagingRequest);
+						return new ArrayList<FileInfo>(folders.getPage());
+					}
+				});
+				skipCount += page.size();
+				hasMore = page.size() == PAGE_SIZE;
+
+				// each processed email has its own folder holding the email and its attachments
+				List<Future<ReplayEntry>> submitted = new ArrayList<Future<ReplayEntry>>(page.size());
+				for (final FileInfo emailFolder : page) {
+					submitted.add(executor.submit(new Callable<ReplayEntry>() {
+						@Override
+						public ReplayEntry call() throws Exception {
+							return AuthenticationUtil.runAsSystem(new RunAsWork<ReplayEntry>() {
+								@Override
+								public ReplayEntry doWork() throws Exception {
+									return readOnly(new RetryingTransactionCallback<ReplayEntry>() {
+										@Override
+										public ReplayEntry execute() throws Throwable {
+											return readEntry(emailFolder.getNodeRef());
+										}
+									});
+								}
+							});
+						}
+					}));
+				}
+				collect(inFlight, entries, report);
+				inFlight = submitted;
+			}
+			collect(inFlight, entries, report);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		logger.info("Parsed " + report.invitations + " processed invitation(s) for site " + site + ", " + report.failed.get() + " failed");
+		return entries;
+	}
+
+	private void collect(List<Future<ReplayEntry>> futures, List<ReplayEntry> entries, RebuildReport report) throws InterruptedException {
+		for (Future<ReplayEntry> future : futures) {
+			ReplayEntry entry;
+			try {
+				entry = future.get();
+			} catch (ExecutionException ee) {
+				logger.warn("Unable to read processed invitation: " + ee.getCause().getMessage());
+				report.failed.incrementAndGet();
+				continue;
+			}
+			if (entry == null) {
+				continue;
+			}
+			entries.add(entry);
+			if (entry.invite == null) {
+				report.failed.incrementAndGet();
+			}
+			report.invitations++;
+			if (report.invitations % LOGGING_INTERVAL == 0) {
+				logger.info("Parsed " + report.invitations + " processed invitation(s) for site " + report.site);
+			}
+		}
+	}
+
+	/**
+	 * Finds the ICS file of the email in a per-email folder and parses it.
+	 *
+	 * @return The entry, with no invite if the ICS file could not be parsed,
+	 *         or null if the folder holds no calendar invitation.
+	 */
+	private ReplayEntry readEntry(NodeRef emailFolder) {
+		for (FileInfo file : fileFolderService.listFiles(emailFolder)) {
+			NodeRef emailNodeRef = file.getNodeRef();
+			if (!nodeService.hasAspect(emailNodeRef, ContentModel.ASPECT_EMAILED)) {
+				continue;
+			}
+			for (AssociationRef assoc : nodeService.getTargetAssocs(emailNodeRef, ContentModel.ASSOC_ATTACHMENTS)) {
+				NodeRef attachment = assoc.getTargetRef();
+				if (nodeService.exists(attachment) && invitationProcessor.isCalendarFile(attachment)) {
+					ReplayEntry entry = new ReplayEntry(emailNodeRef, attachment, getSentTime(emailNodeRef));
+					try {
+						entry.invite = invitationProcessor.parseIcsFile(attachment);
+					} catch (Exception e) {
+						logger.warn("Unable to parse ICS file " + attachment + ": " + e.getMessage());
+					}
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	private long getSentTime(NodeRef emailNodeRef) {
+		Map<QName, Serializable> props = nodeService.getProperties(emailNodeRef);
+		Date sent = (Date) props.get(ContentModel.PROP_SENTDATE);
+		if (sent == null) {
+			sent = (Date) props.get(ContentModel.PROP_CREATED);
+		}
+		return sent == null ? 0 : sent.getTime();
+	}
+
+	private Map<String, NodeRef> getEventsByUid(NodeRef calFolder) {
+		Map<String, NodeRef> events = new HashMap<String, NodeRef>();
+		for (ChildAssociationRef child : nodeService.getChildAssocs(calFolder)) {
+			String uid = (String) nodeService.getProperty(child.getChildRef(), CalendarModel.PROP_OUTLOOK_UID);
+			if (uid != null) {
+				events.put(uid, child.getChildRef());
+			}
+		}
+		return events;
+	}
+
+	private <R> R readOnly(RetryingTransactionCallback<R> callback) {
+		return transactionService.getRetryingTransactionHelper().doInTransaction(callback, true, true);
+	}
+
+	private <R> R inTransaction(RetryingTransactionCallback<R> callback) {
+		return transactionService.getRetryingTransactionHelper().doInTransaction(callback, false, true);
+	}
+
+	private static class ReplayEntry {
+		private final NodeRef emailNodeRef;
+		private final NodeRef icsNodeRef;
+		private final long sentTime;
+		private Invite invite;
+
+		ReplayEntry(NodeRef emailNodeRef, NodeRef icsNodeRef, long sentTime) {
+			this.emailNodeRef = emailNodeRef;
+			this.icsNodeRef = icsNodeRef;
+			this.sentTime = sentTime;
+		}
+	}
+
+	/**
+	 * The state a UID is left in after replaying its invitations in order.
+	 */
+	private static class EventState {
+		private Invite latest;
+		private NodeRef creatorEmail;
+		private boolean deleted;
+
+		void apply(ReplayEntry entry) {
+			if (entry.invite.getAction() == InviteAction.DELETE) {
+				deleted = true;
+			} else {
+				// the email that (re)creates the event is the one stored on it
+				if (latest == null || deleted) {
+					creatorEmail = entry.emailNodeRef;
+				}
+				deleted = false;
+			}
+			latest = entry.invite;
+		}
+	}
+
+	private static class ListWorkProvider implements BatchProcessWorkProvider<String> {
+		private final List<String> work;
+		private boolean handedOut = false;
+
+		ListWorkProvider(List<String> work) {
+			this.work = work;
+		}
+
+		@Override
+		public int getTotalEstimatedWorkSize() {
+			return work.size();
+		}
+
+		@Override
+		public Collection<String> getNextWork() {
+			if (handedOut) {
+				return Collections.emptyList();
+			}
+			handedOut = true;
+			return work;
+		}
+	}
+
+	/**
+	 * Summary of a calendar rebuild. In dry-run mode the counts describe the
+	 * changes that would have been made.
+	 */
+	public static class RebuildReport {
+		private final String site;
+		private final boolean dryRun;
+		private int invitations;
+		private int events;
+		private final AtomicInteger created = new AtomicInteger();
+		private final AtomicInteger updated = new AtomicInteger();
+		private final AtomicInteger deleted = new AtomicInteger();
+		private final AtomicInteger unchanged = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+
+		RebuildReport(String site, boolean dryRun) {
+			this.site = site;
+			this.dryRun = dryRun;
+		}
+
+		void addChange(String action, String uid) {
+			if ("create".equals(action)) {
+				created.incrementAndGet();
+			} else if ("update".equals(action)) {
+				updated.incrementAndGet();
+			} else {
+				deleted.incrementAndGet();
+			}
+			changes.add(action + " " + uid);
+		}
+
+		public String getSite() {
+			return site;
+		}
+		public boolean isDryRun() {
+			return dryRun;
+		}
+		public int getInvitations() {
+			return invitations;
+		}
+		public int getEvents() {
+			return events;
+		}
+		public int getCreated() {
+			return created.get();
+		}
+		public int getUpdated() {
+			return updated.get();
+		}
+		public int getDeleted() {
+			return deleted.get();
+		}
+		public int getUnchanged() {
+			return unchanged.get();
+		}
+		public int getFailed() {
+			return failed.get();
+		}
+		public List<String> getChanges() {
+			return changes;
+		}
+
+		@Override
+		public String toString() {
+			return invitations + " invitation(s), " + events + " event(s): " + getCreated() + " created, "
+					+ getUpdated() + " updated, " + getDeleted() + " deleted, " + getUnchanged() + " unchanged, "
+					+ getFailed() + " failed";
+		}
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public FileFolderService getFileFolderService() {
+		return fileFolderService;
+	}
+
+	public void setFileFolderService(FileFolderService fileFolderService) {
+		this.fileFolderService = fileFolderService;
+	}
+
+	public InvitationProcessor getInvitationProcessor() {
+		return invitationProcessor;
+	}
+
+	public void setInvitationProcessor(InvitationProcessor invitationProcessor) {
+		this.invitationProcessor = invitationProcessor;
+	}
+
+	public NodeService getNodeService() {
+		return nodeService;
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public TransactionService getTransactionService() {
+		return transactionService;
+	}
+
+	public void setTransactionService(TransactionService transactionService) {
+		this.transactionService = transactionService;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+}
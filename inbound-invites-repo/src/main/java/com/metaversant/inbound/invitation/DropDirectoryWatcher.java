@@ -0,0 +1,441 @@
+package com.metaversant.inbound.invitation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.log4j.Logger;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
+
+/**
+ * Picks up ICS files dropped into local directories and applies them to site
+ * calendars, for systems that can export ICS files but cannot send mail.
+ *
+ * Directories are either listed explicitly as site:path pairs or found as
+ * site-named subdirectories of a root directory (new subdirectories are
+ * picked up as they are created). Files are parsed outside of any
+ * transaction and only the latest revision of each event (see
+ * {@link Invite#supersedes(Invite)}) is applied, in batches per site, using
+ * the same create, update, and delete logic as emailed invitations. Afterwards
+ * each file is moved to a "done" or "failed" subdirectory along with the
+ * revisions it superseded.
+ *
+ * A file is only picked up once it has not been modified for the settle time,
+ * so that writers have a chance to finish.
+ *
+ * @author jpotts, Metaversant
+ */
+public class DropDirectoryWatcher extends AbstractLifecycleBean {
+
+	// Dependencies
+	private InvitationProcessor invitationProcessor;
+	private SiteService siteService;
+	private TransactionService transactionService;
+
+	// Configuration
+	private boolean enabled = false;
+	private String rootDirectory;
+	private String siteDirectories;
+	private int batchSize = 20;
+	private long settleTime = 2000;
+
+	// Local Constants
+	public static final String DONE_DIRECTORY = "done";
+	public static final String FAILED_DIRECTORY = "failed";
+	private static final String ICS_EXTENSION = ".ics";
+
+	private WatchService watchService;
+	private Thread watchThread;
+	private final Map<WatchKey, String> siteForKey = new HashMap<WatchKey, String>();
+	private final Map<Path, String> pending = new LinkedHashMap<Path, String>();
+	private Path root;
+
+	private Logger logger = Logger.getLogger(DropDirectoryWatcher.class);
+
+	@Override
+	protected void onBootstrap(ApplicationEvent event) {
+		if (!enabled) {
+			if (logger.isDebugEnabled()) logger.debug("Drop directory ingestion is disabled");
+			return;
+		}
+
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			if (rootDirectory != null && !rootDirectory.trim().isEmpty()) {
+				root = Paths.get(rootDirectory.trim());
+				root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+				scanRoot();
+			}
+			if (siteDirectories != null) {
+				for (String mapping : siteDirectories.split(",")) {
+					int sep = mapping.indexOf(':');
+					if (sep > 0) {
+						watch(mapping.substring(0, sep).trim(), Paths.get(mapping.substring(sep + 1).trim()));
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			logger.error("Unable to start drop directory ingestion: " + ioe.getMessage());
+			return;
+		}
+
+		watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watchLoop();
+			}
+		}, "InboundInvitesDropDirectory");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	@Override
+	protected void onShutdown(ApplicationEvent event) {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException ioe) {
+				// shutting down anyway
+			}
+		}
+	}
+
+	private void watch(String site, Path dir) throws IOException {
+		if (logger.isDebugEnabled()) logger.debug("Watching " + dir + " for site " + site);
+		Files.createDirectories(dir.resolve(DONE_DIRECTORY));
+		Files.createDirectories(dir.resolve(FAILED_DIRECTORY));
+		siteForKey.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY), site);
+
+		// pick up anything dropped while we were not watching
+		scan(site, dir);
+	}
+
+	private void scan(String site, Path dir) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				if (isIcsFile(file)) {
+					pending.put(file, site);
+				}
+			}
+		}
+	}
+
+	private void scanRoot() throws IOException {
+		try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+			for (Path dir : dirs) {
+				if (Files.isDirectory(dir)) {
+					watch(dir.getFileName().toString(), dir);
+				}
+			}
+		}
+	}
+
+	private boolean isIcsFile(Path path) {
+		return path.getFileName().toString().toLowerCase().endsWith(ICS_EXTENSION);
+	}
+
+	private void watchLoop() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.poll(settleTime, TimeUnit.MILLISECONDS);
+			} catch (ClosedWatchServiceException cwse) {
+				return;
+			} catch (InterruptedException ie) {
+				return;
+			}
+
+			try {
+				while (key != null) {
+					queueEvents(key);
+					key = watchService.poll();
+				}
+				ingestSettledFiles();
+			} catch (ClosedWatchServiceException cwse) {
+				return;
+			} catch (Throwable t) {
+				logger.error("Problem ingesting dropped ICS files", t);
+			}
+		}
+	}
+
+	private void queueEvents(WatchKey key) throws IOException {
+		Path dir = (Path) key.watchable();
+		String site = siteForKey.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// the events themselves are lost, so look at the directory again
+				logger.warn("Missed file events for " + dir + ", rescanning");
+				if (site != null) {
+					scan(site, dir);
+				} else if (dir.equals(root)) {
+					scanRoot();
+				}
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (site == null && dir.equals(root)) {
+				// a new site directory
+				if (Files.isDirectory(path)) {
+					watch(path.getFileName().toString(), path);
+				}
+			} else if (site != null && isIcsFile(path)) {
+				pending.put(path, site);
+			}
+		}
+		if (!key.reset()) {
+			siteForKey.remove(key);
+		}
+	}
+
+	private void ingestSettledFiles() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// group the files that have stopped changing by site
+		long cutoff = System.currentTimeMillis() - settleTime;
+		Map<String, List<DroppedFile>> bySite = new LinkedHashMap<String, List<DroppedFile>>();
+		for (Map.Entry<Path, String> entry : new ArrayList<Map.Entry<Path, String>>(pending.entrySet())) {
+			Path path = entry.getKey();
+			long modified;
+			try {
+				modified = Files.getLastModifiedTime(path).toMillis();
+			} catch (IOException ioe) {
+				pending.remove(path); // gone already
+				continue;
+			}
+			if (modified > cutoff) {
+				continue;
+			}
+			pending.remove(path);
+			List<DroppedFile> files = bySite.get(entry.getValue());
+			if (files == null) {
+				files = new ArrayList<DroppedFile>();
+				bySite.put(entry.getValue(), files);
+			}
+			files.add(new DroppedFile(path, modified));
+		}
+
+		for (Map.Entry<String, List<DroppedFile>> entry : bySite.entrySet()) {
+			// the event lookup cannot see events created moments earlier, so
+			// each UID must only be applied once, whichever batch it lands in
+			List<DroppedFile> latest = latestPerEvent(entry.getValue());
+			for (int i = 0; i < latest.size(); i += batchSize) {
+				ingest(entry.getKey(), latest.subList(i, Math.min(i + batchSize, latest.size())));
+			}
+		}
+	}
+
+	/**
+	 * Parses the dropped files for a site and keeps the latest revision of
+	 * each event. The revisions it supersedes travel along with it.
+	 */
+	private List<DroppedFile> latestPerEvent(List<DroppedFile> files) {
+		// oldest first, so the later arrival wins a tie
+		Collections.sort(files, new Comparator<DroppedFile>() {
+			@Override
+			public int compare(DroppedFile a, DroppedFile b) {
+				return Long.compare(a.modified, b.modified);
+			}
+		});
+
+		Map<String, DroppedFile> latest = new LinkedHashMap<String, DroppedFile>();
+		for (DroppedFile file : files) {
+			try {
+				file.invite = parse(file.path);
+			} catch (Exception e) {
+				logger.error("Unable to parse dropped ICS file " + file.path + ": " + e.getMessage());
+				moveTo(file.path, FAILED_DIRECTORY);
+				continue;
+			}
+			DroppedFile current = latest.get(file.invite.getId());
+			if (current == null) {
+				latest.put(file.invite.getId(), file);
+			} else if (file.invite.supersedes(current.invite)) {
+				file.superseded.add(current.path);
+				file.superseded.addAll(current.superseded);
+				latest.put(file.invite.getId(), file);
+			} else {
+				current.superseded.add(file.path);
+			}
+		}
+		return new ArrayList<DroppedFile>(latest.values());
+	}
+
+	/**
+	 * Applies a batch of events to the site calendar in a single transaction.
+	 * If the transaction fails the events are retried one at a time so that
+	 * one bad file does not hold up the rest.
+	 */
+	private void ingest(final String site, List<DroppedFile> files) {
+		try {
+			apply(site, files);
+			for (DroppedFile file : files) {
+				moveAll(file, DONE_DIRECTORY);
+			}
+		} catch (RuntimeException re) {
+			if (logger.isDebugEnabled()) logger.debug("Batch failed for site " + site + ", retrying files individually");
+			for (DroppedFile file : files) {
+				try {
+					apply(site, Collections.singletonList(file));
+					moveAll(file, DONE_DIRECTORY);
+				} catch (RuntimeException fre) {
+					logger.error("Unable to apply dropped ICS file " + file.path + ": " + fre.getMessage());
+					moveAll(file, FAILED_DIRECTORY);
+				}
+			}
+		}
+	}
+
+	private Invite parse(Path path) throws Exception {
+		try (InputStream contentStream = Files.newInputStream(path, StandardOpenOption.READ)) {
+			return invitationProcessor.parseIcs(contentStream);
+		}
+	}
+
+	private void apply(final String site, final List<DroppedFile> files) {
+		AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+			@Override
+			public Void doWork() throws Exception {
+				return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+					@Override
+					public Void execute() throws Throwable {
+						if (siteService.getSite(site) == null) {
+							throw new IllegalArgumentException("Site not found: " + site);
+						}
+						for (DroppedFile file : files) {
+							invitationProcessor.applyInvite(null, site, file.invite);
+						}
+						return null;
+					}
+				}, false, true);
+			}
+		});
+	}
+
+	private void moveAll(DroppedFile file, String directory) {
+		moveTo(file.path, directory);
+		for (Path path : file.superseded) {
+			moveTo(path, directory);
+		}
+	}
+
+	private void moveTo(Path path, String directory) {
+		Path target = path.resolveSibling(directory).resolve(path.getFileName());
+		try {
+			if (Files.exists(target)) {
+				target = target.resolveSibling(System.currentTimeMillis() + "-" + path.getFileName());
+			}
+			Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ioe) {
+			logger.error("Unable to move " + path + " to " + directory + ": " + ioe.getMessage());
+		}
+	}
+
+	private static class DroppedFile {
+		private final Path path;
+		private final long modified;
+		private final List<Path> superseded = new ArrayList<Path>();
+		private Invite invite;
+
+		DroppedFile(Path path, long modified) {
+			this.path = path;
+			this.modified = modified;
+		}
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public InvitationProcessor getInvitationProcessor() {
+		return invitationProcessor;
+	}
+
+	public void setInvitationProcessor(InvitationProcessor invitationProcessor) {
+		this.invitationProcessor = invitationProcessor;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public TransactionService getTransactionService() {
+		return transactionService;
+	}
+
+	public void setTransactionService(TransactionService transactionService) {
+		this.transactionService = transactionService;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getRootDirectory() {
+		return rootDirectory;
+	}
+
+	public void setRootDirectory(String rootDirectory) {
+		this.rootDirectory = rootDirectory;
+	}
+
+	public String getSiteDirectories() {
+		return siteDirectories;
+	}
+
+	public void setSiteDirectories(String siteDirectories) {
+		this.siteDirectories = siteDirectories;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getSettleTime() {
+		return settleTime;
+	}
+
+	public void setSettleTime(long settleTime) {
+		this.settleTime = settleTime;
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.metaversant.inbound.invitation;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+
+/**
+ * Decides how much of the invitation plumbing gets indexed by applying the
+ * cm:indexControl aspect.
+ *
+ * Each kind of node has its own mode:
+ * <ul>
+ * <li>FULL indexes the node as usual, removing any index control an
+ * earlier mode left on it.</li>
+ * <li>METADATA indexes properties but not content.</li>
+ * <li>NONE keeps the node out of the index.</li>
+ * </ul>
+ * Event nodes are looked up by UID through the index, so they can never be
+ * set to NONE.
+ *
+ * @author jpotts, Metaversant
+ */
+public class IndexControlPolicy {
+
+	public enum IndexMode {
+		FULL, METADATA, NONE
+	}
+
+	// Dependencies
+	private NodeService nodeService;
+
+	// Configuration
+	private IndexMode inboxMode = IndexMode.FULL;
+	private IndexMode processedMode = IndexMode.FULL;
+	private IndexMode eventMode = IndexMode.FULL;
+
+	private Logger logger = Logger.getLogger(IndexControlPolicy.class);
+
+	/**
+	 * Applies the policy for emails and attachments held in an inbox while
+	 * their invite is being coalesced. Emails that are processed straight away
+	 * only get the processed policy.
+	 *
+	 * @param nodeRef Node reference of the email or attachment.
+	 */
+	public void applyToInbox(NodeRef nodeRef) {
+		apply(nodeRef, inboxMode, false);
+	}
+
+	/**
+	 * Applies the policy for processed folders and the emails and attachments
+	 * moved into them. Index control is only looked for when the inbox policy
+	 * could have left some behind.
+	 *
+	 * @param nodeRef Node reference of the folder, email, or attachment.
+	 */
+	public void applyToProcessed(NodeRef nodeRef) {
+		apply(nodeRef, processedMode, inboxMode != IndexMode.FULL);
+	}
+
+	/**
+	 * Applies the policy for processed nodes to a node that may have been
+	 * processed under a different policy.
+	 *
+	 * @param nodeRef Node reference of the folder, email, or attachment.
+	 */
+	public void reapplyToProcessed(NodeRef nodeRef) {
+		apply(nodeRef, processedMode, true);
+	}
+
+	/**
+	 * Applies the policy for calendar events.
+	 *
+	 * @param nodeRef Node reference of the event.
+	 */
+	public void applyToEvent(NodeRef nodeRef) {
+		apply(nodeRef, eventMode, false);
+	}
+
+	private void apply(NodeRef nodeRef, IndexMode mode, boolean mayBeControlled) {
+		if (mode == IndexMode.FULL) {
+			if (mayBeControlled && nodeService.hasAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL)) {
+				nodeService.removeAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL);
+			}
+			return;
+		}
+
+		Boolean isIndexed = mode == IndexMode.METADATA;
+		if (nodeService.hasAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL)
+				&& isIndexed.equals(nodeService.getProperty(nodeRef, ContentModel.PROP_IS_INDEXED))
+				&& Boolean.FALSE.equals(nodeService.getProperty(nodeRef, ContentModel.PROP_IS_CONTENT_INDEXED))) {
+			return;
+		}
+
+		Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+		props.put(ContentModel.PROP_IS_INDEXED, isIndexed);
+		props.put(ContentModel.PROP_IS_CONTENT_INDEXED, false);
+		nodeService.addAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL, props);
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public NodeService getNodeService() {
+		return nodeService;
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public IndexMode getInboxMode() {
+		return inboxMode;
+	}
+
+	public void setInboxMode(IndexMode inboxMode) {
+		this.inboxMode = inboxMode;
+	}
+
+	public IndexMode getProcessedMode() {
+		return processedMode;
+	}
+
+	public void setProcessedMode(IndexMode processedMode) {
+		this.processedMode = processedMode;
+	}
+
+	public IndexMode getEventMode() {
+		return eventMode;
+	}
+
+	public void setEventMode(IndexMode eventMode) {
+		if (eventMode == IndexMode.NONE) {
+			logger.warn("Events are looked up through the index, using METADATA instead of NONE");
+			eventMode = IndexMode.METADATA;
+		}
+		this.eventMode = eventMode;
+	}
+
+}
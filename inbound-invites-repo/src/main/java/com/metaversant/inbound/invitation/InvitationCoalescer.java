@@ -0,0 +1,285 @@
+package com.metaversant.inbound.invitation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.metaversant.inbound.common.InboundInvitesConstants;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.log4j.Logger;
+
+/**
+ * Holds parsed invitations for a short window so that a burst of updates to
+ * the same event only results in a single write to the site calendar.
+ *
+ * Pending invites are grouped by site and UID. When the window that was opened
+ * by the first invite in a group closes, only the latest invite (highest
+ * SEQUENCE, then latest DTSTAMP, then latest arrival) is applied. Emails for
+ * the superseded invites are moved to the processed folder without touching
+ * the event node.
+ *
+ * An invite only joins its group once the transaction that submitted it has
+ * committed, so the flush always sees the email, and an invite whose
+ * transaction rolled back never supersedes another.
+ *
+ * Pending invites are only held in memory. If the server stops before a window
+ * closes the emails are left in the inbound invitations folder for the sweeper
+ * to pick up, which is why coalescing stays off unless the sweeper is enabled.
+ *
+ * @author jpotts, Metaversant
+ */
+public class InvitationCoalescer {
+
+	// Dependencies
+	private InvitationProcessor invitationProcessor;
+	private NodeService nodeService;
+	private SiteService siteService;
+	private TransactionService transactionService;
+
+	// Configuration
+	private long window = 0;
+	private boolean sweeperEnabled = false;
+
+	private final Map<String, PendingInvite> pending = new HashMap<String, PendingInvite>();
+	private ScheduledExecutorService scheduler;
+
+	private Logger logger = Logger.getLogger(InvitationCoalescer.class);
+
+	public void init() {
+		if (window <= 0) {
+			if (logger.isDebugEnabled()) logger.debug("Invitation coalescing is disabled");
+			return;
+		}
+
+		if (!sweeperEnabled) {
+			// held invites are lost on shutdown and only the sweeper would pick them up again
+			logger.warn("Invitation coalescing requires the invitation sweeper, coalescing is disabled");
+			return;
+		}
+
+		if (logger.isDebugEnabled()) logger.debug("Initializing invitation coalescer with a window of " + window + " ms");
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "InboundInvitesCoalescer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		invitationProcessor.setInvitationCoalescer(this);
+	}
+
+	public void destroy() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parses the invite and holds it until the coalescing window for its site
+	 * and UID closes.
+	 *
+	 * @param emailNodeRef  Node reference of the emailed invite.
+	 * @param inviteNodeRef Node reference of the ICS file.
+	 * @return true if the invite is now pending, false if the caller should
+	 *         process the email immediately.
+	 */
+	public boolean submit(final NodeRef emailNodeRef, NodeRef inviteNodeRef) {
+		final String site = siteService.getSiteShortName(inviteNodeRef);
+		if (site == null) {
+			return false;
+		}
+
+		final Invite invite;
+		try {
+			invite = invitationProcessor.parseIcsFile(inviteNodeRef);
+		} catch (Exception e) {
+			// let the processor log the problem and move the email along
+			return false;
+		}
+
+		final String key = site + "/" + invite.getId();
+
+		// the email is not visible to other transactions until this one commits
+		AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter() {
+			@Override
+			public void afterCommit() {
+				hold(key, site, emailNodeRef, invite);
+			}
+		});
+
+		if (logger.isDebugEnabled()) logger.debug("Holding invite " + invite.getId() + " for site " + site);
+		return true;
+	}
+
+	private void hold(String key, String site, NodeRef emailNodeRef, Invite invite) {
+		synchronized (pending) {
+			PendingInvite group = pending.get(key);
+			if (group == null) {
+				group = new PendingInvite(site);
+				pending.put(key, group);
+			}
+			group.offer(emailNodeRef, invite);
+			if (!group.scheduled) {
+				group.scheduled = true;
+				scheduler.schedule(new Flush(key), window, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void flush(String key) {
+		final PendingInvite group;
+		synchronized (pending) {
+			group = pending.remove(key);
+		}
+		if (group == null) {
+			return;
+		}
+
+		if (logger.isDebugEnabled()) logger.debug("Applying " + key + ", superseding " + group.superseded.size() + " invite(s)");
+
+		AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+			@Override
+			public Void doWork() throws Exception {
+				return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+					@Override
+					public Void execute() throws Throwable {
+						for (NodeRef emailNodeRef : group.superseded) {
+							if (isStillPending(emailNodeRef)) {
+								invitationProcessor.moveToProcessed(emailNodeRef);
+							}
+						}
+						if (isStillPending(group.latestEmail)) {
+							invitationProcessor.applyInvite(group.latestEmail, group.site, group.latest);
+							invitationProcessor.moveToProcessed(group.latestEmail);
+						}
+						return null;
+					}
+				}, false, true);
+			}
+		});
+	}
+
+	private boolean isStillPending(NodeRef emailNodeRef) {
+		if (!nodeService.exists(emailNodeRef)) {
+			return false;
+		}
+		NodeRef parentFolder = nodeService.getPrimaryParent(emailNodeRef).getParentRef();
+		String parentFolderName = (String) nodeService.getProperty(parentFolder, ContentModel.PROP_NAME);
+		return InboundInvitesConstants.INVITATIONS_FOLDER_NAME.equals(parentFolderName);
+	}
+
+	private class Flush implements Runnable {
+		private final String key;
+
+		Flush(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			try {
+				flush(key);
+			} catch (Throwable t) {
+				logger.error("Problem applying coalesced invite: " + key, t);
+			}
+		}
+	}
+
+	private static class PendingInvite {
+		private final String site;
+		private final List<NodeRef> superseded = new ArrayList<NodeRef>();
+		private NodeRef latestEmail;
+		private Invite latest;
+		private boolean scheduled = false;
+
+		PendingInvite(String site) {
+			this.site = site;
+		}
+
+		void offer(NodeRef emailNodeRef, Invite invite) {
+			// the behavior can fire more than once for the same email
+			if (emailNodeRef.equals(latestEmail) || superseded.contains(emailNodeRef)) {
+				return;
+			}
+			if (latest == null) {
+				latestEmail = emailNodeRef;
+				latest = invite;
+			} else if (invite.supersedes(latest)) {
+				superseded.add(latestEmail);
+				latestEmail = emailNodeRef;
+				latest = invite;
+			} else {
+				superseded.add(emailNodeRef);
+			}
+		}
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public InvitationProcessor getInvitationProcessor() {
+		return invitationProcessor;
+	}
+
+	public void setInvitationProcessor(InvitationProcessor invitationProcessor) {
+		this.invitationProcessor = invitationProcessor;
+	}
+
+	public NodeService getNodeService() {
+		return nodeService;
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public TransactionService getTransactionService() {
+		return transactionService;
+	}
+
+	public void setTransactionService(TransactionService transactionService) {
+		this.transactionService = transactionService;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	public boolean isSweeperEnabled() {
+		return sweeperEnabled;
+	}
+
+	public void setSweeperEnabled(boolean sweeperEnabled) {
+		this.sweeperEnabled = sweeperEnabled;
+	}
+
+}
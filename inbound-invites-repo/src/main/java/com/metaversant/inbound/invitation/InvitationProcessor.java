@@ -10,6 +10,7 @@ import java.util.Map;
 import com.metaversant.inbound.common.InboundInvitesConstants;
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.property.Method;
 import net.fortuna.ical4j.model.property.Version;
@@ -52,16 +53,15 @@ public class InvitationProcessor {
 	private ContentService contentService;
 	private SearchService searchService;
 	private FileFolderService fileFolderService;
+	private InvitationCoalescer invitationCoalescer;
+	private IndexControlPolicy indexControlPolicy;
 
 	// InboundInvitesConstants
-	private final String PROCESSED_FOLDER_NAME = "processed";
-	private static final String CALENDAR_COMPONENT_ID = "calendar";
+	static final String CALENDAR_COMPONENT_ID = "calendar";
 	private static final String CALENDAR_FOLDER_NAME = "calendar";
 
     // Local Constants
     public static final String METHOD = "METHOD";
-    public static final String CREATE = "CREATE";
-    public static final String DELETE = "DELETE";
     public static final String VERSION = "VERSION";
 
 	private Logger logger = Logger.getLogger(OnEmailedNodeUpdate.class);
@@ -108,6 +108,13 @@ public class InvitationProcessor {
 			if (logger.isDebugEnabled()) logger.debug("Checking email attachment");
 			NodeRef attachment = assoc.getTargetRef();
 			if (isCalendarFile(attachment)) {
+				// when coalescing is enabled the coalescer decides when the invite is applied
+				// and takes care of moving the email once it has been
+				if (invitationCoalescer != null && invitationCoalescer.submit(emailNodeRef, attachment)) {
+					// the email stays in the inbox until the window closes
+					applyToInbox(emailNodeRef, attachments);
+					return;
+				}
 				processCalendarInvite(emailNodeRef, attachment);
                 // There should only ever be one file that needs to be processed, so once that is done, bail
 				break;
@@ -116,9 +123,42 @@ public class InvitationProcessor {
 			}
 		}
 
+		moveToProcessed(emailNodeRef, parentFolder, attachments);
+	}
+
+	/**
+	 * Moves the email and all of its attachments to a processed folder without
+	 * touching the site calendar.
+	 *
+	 * @param emailNodeRef Node reference of the emailed object.
+	 */
+	public void moveToProcessed(NodeRef emailNodeRef) {
+		List<AssociationRef> attachments = nodeService.getTargetAssocs(emailNodeRef, ContentModel.ASSOC_ATTACHMENTS);
+		NodeRef parentFolder = nodeService.getPrimaryParent(emailNodeRef).getParentRef(); // inboundInvitations
+		moveToProcessed(emailNodeRef, parentFolder, attachments);
+	}
+
+	private void applyToInbox(NodeRef emailNodeRef, List<AssociationRef> attachments) {
+		if (indexControlPolicy != null) {
+			indexControlPolicy.applyToInbox(emailNodeRef);
+			for (AssociationRef assoc : attachments) {
+				indexControlPolicy.applyToInbox(assoc.getTargetRef());
+			}
+		}
+	}
+
+	private void moveToProcessed(NodeRef emailNodeRef, NodeRef parentFolder, List<AssociationRef> attachments) {
 		// move the invitation, its email, and any other attachments that
 		// came with it to a processed folder
-		NodeRef processedFolder = getProcessedFolder(emailNodeRef);
+		NodeRef processedFolder = getProcessedFolder(emailNodeRef, parentFolder);
+
+		// apply the index policy before moving so the nodes are only reindexed once
+		if (indexControlPolicy != null) {
+			indexControlPolicy.applyToProcessed(emailNodeRef);
+			for (AssociationRef assoc : attachments) {
+				indexControlPolicy.applyToProcessed(assoc.getTargetRef());
+			}
+		}
 
 		// move the invite
 		try {
@@ -140,9 +180,19 @@ public class InvitationProcessor {
 		}
 	}
 
-	private boolean isCalendarFile(NodeRef attachment) {
+	/**
+	 * Determines whether or not an attachment is an ICS file.
+	 *
+	 * @param attachment Node reference of the attachment.
+	 * @return true if the attachment holds calendar data.
+	 */
+	public boolean isCalendarFile(NodeRef attachment) {
 		boolean isCalendarFile = false;
 		ContentData contentData = (ContentData) nodeService.getProperty(attachment, ContentModel.PROP_CONTENT);
+		if (contentData == null || contentData.getMimetype() == null) {
+			// nothing to read
+			return false;
+		}
 		String mimeType = contentData.getMimetype();
 		if (mimeType.equals("text/calendar")) {
 			if (logger.isDebugEnabled()) logger.debug("Found text/calendar: " + attachment.getId());
@@ -175,43 +225,55 @@ public class InvitationProcessor {
 			return;
 		}
 
-		// get the calendar folder for that site (it may not exist yet)
-		NodeRef calFolder = getCalendarFolder(site);
-
-		if (calFolder == null) {
-			logger.error("Unable to get calendar folder for site: " + site);
-			return;
-		}
-
 		// parse the ICS file
-		CalendarInfo calInfo = null;
+		Invite invite = null;
 		try {
-			calInfo = parseIcsFile(inviteNodeRef);
+			invite = parseIcsFile(inviteNodeRef);
 		} catch (Exception e) {
 			logger.error("Caught exception while parsing ICS file: " + e.getMessage());
 			return;
 		}
 
-		if (calInfo == null) {
+		if (invite == null) {
 			logger.error("Unable to parse ICS file for nodeRef: " + inviteNodeRef.getId());
 			return;
 		}
 
+		applyInvite(emailNodeRef, site, invite);
+	}
+
+	/**
+	 * Takes the appropriate action in the site calendar for an invite that has
+	 * already been parsed.
+	 *
+	 * @param emailNodeRef Node reference of the emailed invite.
+	 * @param site         Short name of the Share site the invite was sent to.
+	 * @param invite       Parsed invitation.
+	 */
+	public void applyInvite(NodeRef emailNodeRef, String site, Invite invite) {
+		// get the calendar folder for that site (it may not exist yet)
+		NodeRef calFolder = getCalendarFolder(site);
+
+		if (calFolder == null) {
+			logger.error("Unable to get calendar folder for site: " + site);
+			return;
+		}
+
 		// if the action is create
-		if (calInfo.getAction().equals(CREATE)) {
+		if (invite.getAction() == InviteAction.CREATE) {
 			// create a new calendar entry in the calendar folder if one does
 			// not exist for the same id, otherwise update
-			createOrUpdateEvent(emailNodeRef, calFolder, calInfo);
-		} else if (calInfo.getAction().equals(DELETE)) {
+			createOrUpdateEvent(emailNodeRef, calFolder, invite);
+		} else if (invite.getAction() == InviteAction.DELETE) {
 			// if the action is delete
 			// find the current calendar entry and delete it if it exists
-			NodeRef event = findEventForId(calFolder, calInfo.getId());
+			NodeRef event = findEventForId(calFolder, invite.getId());
 			if (event != null) {
 				deleteEvent(event);
 			}
 		} else {
 			// otherwise log an exception
-			logger.error("Unexpected action: " + calInfo.getAction() + " for nodeRef: " + inviteNodeRef.getId());
+			logger.error("Unexpected action: " + invite.getAction() + " for event: " + invite.getId());
 		}
 
 	}
@@ -261,14 +323,14 @@ public class InvitationProcessor {
 	 *
      * @param emailNodeRef Node reference of the emailed invite.
 	 * @param folder       Node reference for the folder holding the calendar objects.
-	 * @param calInfo      POJO holding calendar metadata.
+	 * @param invite       Parsed invitation.
 	 */
-	public void createOrUpdateEvent(NodeRef emailNodeRef, NodeRef folder, CalendarInfo calInfo) {
-		NodeRef existingEvent = findEventForId(folder, calInfo.getId());
+	public void createOrUpdateEvent(NodeRef emailNodeRef, NodeRef folder, Invite invite) {
+		NodeRef existingEvent = findEventForId(folder, invite.getId());
 		if (existingEvent == null) {
-			createEvent(emailNodeRef, folder, calInfo);
+			createEvent(emailNodeRef, folder, invite);
 		} else {
-			updateEvent(existingEvent, calInfo);
+			updateEvent(existingEvent, invite);
 		}
 	}
 
@@ -277,14 +339,14 @@ public class InvitationProcessor {
 	 *
      * @param emailNodeRef Node reference of the emailed invite.
 	 * @param folder       Node reference for the folder holding the calendar objects.
-	 * @param calInfo      POJO holding calendar metadata.
+	 * @param invite       Parsed invitation.
 	 */
-	public void createEvent(NodeRef emailNodeRef, NodeRef folder, CalendarInfo calInfo) {
+	public void createEvent(NodeRef emailNodeRef, NodeRef folder, Invite invite) {
 		if (logger.isDebugEnabled()) logger.debug("Creating event");
 
 		// assign name
-        String name = getEventName(calInfo);
-        Map<QName, Serializable> props = getProperties(calInfo);
+        String name = getEventName(invite);
+        Map<QName, Serializable> props = getProperties(invite);
         props.put(ContentModel.PROP_NAME, name);
 
         ChildAssociationRef childAssoc = nodeService.createNode(
@@ -295,64 +357,66 @@ public class InvitationProcessor {
                 props
         );
 
-        // capture email props to store on the calendar entry
+        if (indexControlPolicy != null) {
+        	indexControlPolicy.applyToEvent(childAssoc.getChildRef());
+        }
+
+        // events that did not arrive by email have no email props to capture
+        if (emailNodeRef == null) {
+        	return;
+        }
+
+        // capture email props to store on the calendar entry, reading them
+        // from the email in a single call
         NodeRef calObj = childAssoc.getChildRef();
+        Map<QName, Serializable> sourceProps = nodeService.getProperties(emailNodeRef);
         Map<QName, Serializable> emailProps = new HashMap<QName, Serializable>();
-        emailProps.put(ContentModel.PROP_SENTDATE, nodeService.getProperty(emailNodeRef, ContentModel.PROP_SENTDATE));
-        emailProps.put(ContentModel.PROP_ADDRESSEE, nodeService.getProperty(emailNodeRef, ContentModel.PROP_ADDRESSEE));
-        emailProps.put(ContentModel.PROP_ADDRESSEES, nodeService.getProperty(emailNodeRef, ContentModel.PROP_ADDRESSEES));
-        emailProps.put(ContentModel.PROP_ORIGINATOR, nodeService.getProperty(emailNodeRef, ContentModel.PROP_ORIGINATOR));
+        emailProps.put(ContentModel.PROP_SENTDATE, sourceProps.get(ContentModel.PROP_SENTDATE));
+        emailProps.put(ContentModel.PROP_ADDRESSEE, sourceProps.get(ContentModel.PROP_ADDRESSEE));
+        emailProps.put(ContentModel.PROP_ADDRESSEES, sourceProps.get(ContentModel.PROP_ADDRESSEES));
+        emailProps.put(ContentModel.PROP_ORIGINATOR, sourceProps.get(ContentModel.PROP_ORIGINATOR));
         nodeService.addAspect(calObj, ContentModel.ASPECT_EMAILED, emailProps);
 	}
 
 	/**
 	 * Creates a unique name for the ICS attachment.
 	 * 
-	 * @param calInfo POJO holding calendar metadata.
+	 * @param invite Parsed invitation.
 	 * @return String with the unique name of the ICS attachment.
 	 */
-	public String getEventName(CalendarInfo calInfo) {
-		return "emailed-event-" + calInfo.getId() + "-" + System.currentTimeMillis() + ".ics";
+	public String getEventName(Invite invite) {
+		return "emailed-event-" + invite.getId() + "-" + System.currentTimeMillis() + ".ics";
 	}
 
 	/**
-	 * Builds a properties map using the data in the CalendarInfo POJO.
+	 * Builds a properties map using the data in the invite.
 	 * 
-	 * @param calInfo POJO holding calendar metadata.
+	 * @param invite Parsed invitation.
 	 * @return Map of properties suitable for setting on an Alfresco node.
 	 */
-	public Map<QName, Serializable> getProperties(CalendarInfo calInfo) {
-        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
-
-        // add the props from the CalendarInfo object
-        props.put(CalendarModel.PROP_WHAT, calInfo.getSummary());
-        props.put(CalendarModel.PROP_DESCRIPTION, calInfo.getDescription());
-        props.put(CalendarModel.PROP_FROM_DATE, calInfo.getStartDate());
-        props.put(CalendarModel.PROP_TO_DATE, calInfo.getEndDate());
-        props.put(CalendarModel.PROP_WHERE, calInfo.getLocation());
-        props.put(CalendarModel.PROP_IS_OUTLOOK, false);
-        props.put(CalendarModel.PROP_OUTLOOK_UID, calInfo.getId());
-
-        return props;
+	public Map<QName, Serializable> getProperties(Invite invite) {
+        return invite.writeProperties(new HashMap<QName, Serializable>());
 	}
 
 	/**
-	 * Update an existing event with the information in the CalendarInfo
-	 * object.
+	 * Update an existing event with the information in the invite. Nothing is
+	 * written if the event already matches.
 	 * 
 	 * @param existingEvent Node reference for the existing event.
-	 * @param calInfo       POJO holding calendar metadata.
+	 * @param invite        Parsed invitation.
 	 */
-	public void updateEvent(NodeRef existingEvent, CalendarInfo calInfo) {
+	public void updateEvent(NodeRef existingEvent, Invite invite) {
 		if (logger.isDebugEnabled()) logger.debug("Updating event");
 		// get the current properties of the node
 		Map<QName, Serializable> props = nodeService.getProperties(existingEvent);
 
-		// get the new properties from the Calendar Info
-		Map<QName, Serializable> updatedProps = getProperties(calInfo);
+		if (invite.matches(props)) {
+			if (logger.isDebugEnabled()) logger.debug("Event is unchanged");
+			return;
+		}
 
-		// merge the props
-		props.putAll(updatedProps);
+		// merge the new properties from the invite into the current ones
+		invite.writeProperties(props);
 
 		// update the properties on the node
 		nodeService.setProperties(existingEvent, props);
@@ -381,87 +445,22 @@ public class InvitationProcessor {
 	}
 
 	/**
-	 * Parses an ICS file and turns it into a CalendarInfo object.
+	 * Parses an ICS file and turns it into an Invite.
 	 * 
 	 * @param nodeRef Node reference containing the ICS file.
-	 * @return POJO holding calendar metadata.
+	 * @return Parsed invitation.
 	 * @throws Exception if the calendar method is something other than
 	 *         request or cancel or if the UID for the invite cannot be
 	 *         determined.
 	 */
-	public CalendarInfo parseIcsFile(NodeRef nodeRef) throws Exception {
+	public Invite parseIcsFile(NodeRef nodeRef) throws Exception {
 		if (logger.isDebugEnabled()) logger.debug("Parsing ICS file");
 
-		CalendarInfo calInfo = new CalendarInfo();
 		InputStream contentStream = null;
     	try {
     		ContentReader reader = contentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
     		contentStream = reader.getContentInputStream();
-
-    		// Outlook seems to be using new line only (\n) instead of carriage
-            // returns and line feeds (\r\n). This property relaxes that
-            // requirement.
-            System.setProperty("ical4j.unfolding.relaxed", "true");
-
-    		CalendarBuilder builder = new CalendarBuilder();
-	    	Calendar calendar = builder.build(contentStream);
-	    	if (!calendar.getProperty(VERSION).equals(Version.VERSION_2_0)) {
-	    		logger.error("ICS file version not recognized");
-	    	}
-
-	    	if (calendar.getProperty(METHOD).equals(Method.REQUEST) ||
-                    calendar.getProperty(METHOD).equals(Method.PUBLISH)) {
-	    		calInfo.setAction(CREATE);
-	    	} else if(calendar.getProperty(METHOD).equals(Method.CANCEL)) {
-	    		calInfo.setAction(DELETE);
-	    	} else {
-	    		throw new Exception("Unknown method: " + calendar.getProperty(METHOD).getValue());
-	    	}
-
-	    	VEvent vevent = (VEvent) calendar.getComponent("VEVENT");
-	    	if (vevent.getUid() == null) {
-	    		throw new Exception("Could not determine event UID");
-	    	} else {
-	    		calInfo.setId(vevent.getUid().getValue());
-	    	}
-
-	    	if (vevent.getSummary() == null) {
-	    		calInfo.setSummary("Untitled event");
-	    	} else {
-	    		calInfo.setSummary(vevent.getSummary().getValue());
-	    	}
-
-	    	if (vevent.getCreated() != null) {
-                calInfo.setCreateDate(vevent.getCreated().getDate());
-            }
-
-	    	Date startDate = vevent.getStartDate().getDate();
-	    	Date endDate = vevent.getEndDate().getDate();
-  	
-	    	// When an all day event is being created, the end date
-	    	// needs to be adjusted by 1 day because Alfresco does not treat
-	    	// end dates for all day events as it should according to the
-	    	// iCalendar spec.
-	    	logger.debug("endDate value: " + vevent.getEndDate().toString());
-	    	if (vevent.getEndDate().toString().startsWith("DTEND;VALUE=DATE")) {
-	            java.util.Calendar cal = java.util.Calendar.getInstance();
-	            logger.debug("endDate: " + endDate);
-	            cal.setTime(endDate);
-	            cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
-	            endDate = cal.getTime();
-	            logger.debug("adjusted endDate: " + endDate);
-	    	}
-	    	calInfo.setStartDate(startDate);
-	    	calInfo.setEndDate(endDate);
-
-	    	if (vevent.getDescription() != null) {
-	    		calInfo.setDescription(vevent.getDescription().getValue());
-	    	}
-
-	    	if (vevent.getLocation() != null) {
-	    		calInfo.setLocation(vevent.getLocation().getValue());
-	    	}
-
+    		return parseIcs(contentStream);
     	} finally {
     		if (contentStream != null) {
     			try {
@@ -470,7 +469,103 @@ public class InvitationProcessor {
     			}
     		}
     	}
-    	return calInfo;
+	}
+
+	/**
+	 * Parses ICS data and turns it into an Invite. The caller is responsible
+	 * for closing the stream.
+	 *
+	 * @param contentStream Stream of ICS data.
+	 * @return Parsed invitation.
+	 * @throws Exception if the calendar method is something other than
+	 *         request or cancel or if the UID for the invite cannot be
+	 *         determined.
+	 */
+	public Invite parseIcs(InputStream contentStream) throws Exception {
+		Invite.Builder invite = new Invite.Builder();
+
+		// Outlook seems to be using new line only (\n) instead of carriage
+		// returns and line feeds (\r\n). This property relaxes that
+		// requirement.
+		System.setProperty("ical4j.unfolding.relaxed", "true");
+
+		CalendarBuilder builder = new CalendarBuilder();
+		Calendar calendar = builder.build(contentStream);
+		if (!calendar.getProperty(VERSION).equals(Version.VERSION_2_0)) {
+			logger.error("ICS file version not recognized");
+		}
+
+		if (calendar.getProperty(METHOD).equals(Method.REQUEST) ||
+	            calendar.getProperty(METHOD).equals(Method.PUBLISH)) {
+			invite.action(InviteAction.CREATE);
+		} else if(calendar.getProperty(METHOD).equals(Method.CANCEL)) {
+			invite.action(InviteAction.DELETE);
+		} else {
+			throw new Exception("Unknown method: " + calendar.getProperty(METHOD).getValue());
+		}
+
+		VEvent vevent = (VEvent) calendar.getComponent("VEVENT");
+		if (vevent.getUid() == null) {
+			throw new Exception("Could not determine event UID");
+		} else {
+			invite.id(vevent.getUid().getValue());
+		}
+
+		if (vevent.getSummary() == null) {
+			invite.summary("Untitled event");
+		} else {
+			invite.summary(vevent.getSummary().getValue());
+		}
+
+		if (vevent.getCreated() != null) {
+			invite.created(vevent.getCreated().getDate());
+		}
+
+		if (vevent.getSequence() != null) {
+			invite.sequence(vevent.getSequence().getSequenceNo());
+		}
+
+		if (vevent.getDateStamp() != null) {
+			invite.stamp(vevent.getDateStamp().getDate());
+		}
+
+		Date startDate = vevent.getStartDate().getDate();
+		Date endDate = vevent.getEndDate().getDate();
+
+		// When an all day event is being created, the end date
+		// needs to be adjusted by 1 day because Alfresco does not treat
+		// end dates for all day events as it should according to the
+		// iCalendar spec.
+		logger.debug("endDate value: " + vevent.getEndDate().toString());
+		if (vevent.getEndDate().toString().startsWith("DTEND;VALUE=DATE")) {
+			java.util.Calendar cal = java.util.Calendar.getInstance();
+			logger.debug("endDate: " + endDate);
+			cal.setTime(endDate);
+			cal.add(java.util.Calendar.DAY_OF_MONTH, -1);
+			endDate = cal.getTime();
+			logger.debug("adjusted endDate: " + endDate);
+		}
+		invite.start(startDate);
+		invite.end(endDate);
+
+		if (vevent.getDescription() != null) {
+			invite.description(vevent.getDescription().getValue());
+		}
+
+		if (vevent.getLocation() != null) {
+			invite.location(vevent.getLocation().getValue());
+		}
+
+		Property rrule = vevent.getProperty(Property.RRULE);
+		if (rrule != null) {
+			invite.recurrenceRule(rrule.getValue());
+		}
+
+		for (Object attendee : vevent.getProperties(Property.ATTENDEE)) {
+			invite.attendee(((Property) attendee).getValue());
+		}
+
+		return invite.build();
 	}
 
 	/**
@@ -481,19 +576,35 @@ public class InvitationProcessor {
 	 */
 	public NodeRef getProcessedFolder(NodeRef emailNodeRef) {
 		ChildAssociationRef childAssoc = nodeService.getPrimaryParent(emailNodeRef); // inboundInvitations
-		NodeRef parentFolder = childAssoc.getParentRef();
+		return getProcessedFolder(emailNodeRef, childAssoc.getParentRef());
+	}
 
+	/**
+	 * For a given invitation, determine its "processed" folder when the folder
+	 * the invitation is sitting in is already known.
+	 *
+	 * @param emailNodeRef Node reference of the emailed object.
+	 * @param parentFolder Node reference of the inbound invitations folder.
+	 * @return NodeRef representing the folder for the email and its attachments
+	 */
+	public NodeRef getProcessedFolder(NodeRef emailNodeRef, NodeRef parentFolder) {
 		// Everything goes in a common folder named PROCESSED_FOLDER_NAME
-		NodeRef mainProcessedFolder = nodeService.getChildByName(parentFolder, ContentModel.ASSOC_CONTAINS, PROCESSED_FOLDER_NAME);
+		NodeRef mainProcessedFolder = nodeService.getChildByName(parentFolder, ContentModel.ASSOC_CONTAINS, InboundInvitesConstants.PROCESSED_FOLDER_NAME);
 		if (mainProcessedFolder == null) {
-			FileInfo fileInfo = fileFolderService.create(parentFolder, PROCESSED_FOLDER_NAME, ContentModel.TYPE_FOLDER);
+			FileInfo fileInfo = fileFolderService.create(parentFolder, InboundInvitesConstants.PROCESSED_FOLDER_NAME, ContentModel.TYPE_FOLDER);
 			mainProcessedFolder = fileInfo.getNodeRef();
+			if (indexControlPolicy != null) indexControlPolicy.applyToProcessed(mainProcessedFolder);
 		}
 
 		// Within that, create a folder using the email's nodeRef ID to avoid
-		// naming collisions and to keep the email and attachments together
-		FileInfo fileInfo = fileFolderService.create(mainProcessedFolder, emailNodeRef.getId(), ContentModel.TYPE_FOLDER);
-		NodeRef processedFolder = fileInfo.getNodeRef();
+		// naming collisions and to keep the email and attachments together.
+		// A failed move can leave the folder behind, so reuse it if it is there.
+		NodeRef processedFolder = nodeService.getChildByName(mainProcessedFolder, ContentModel.ASSOC_CONTAINS, emailNodeRef.getId());
+		if (processedFolder == null) {
+			FileInfo fileInfo = fileFolderService.create(mainProcessedFolder, emailNodeRef.getId(), ContentModel.TYPE_FOLDER);
+			processedFolder = fileInfo.getNodeRef();
+			if (indexControlPolicy != null) indexControlPolicy.applyToProcessed(processedFolder);
+		}
 
 		return processedFolder;
 	}
@@ -542,62 +653,20 @@ public class InvitationProcessor {
 		this.fileFolderService = fileFolderService;
 	}
 
-	public class CalendarInfo {
-		private Date createDate;
-		private String summary;
-		private String description;
-		private Date startDate;
-		private Date endDate;
-		private String location;
-		private String id;
-		private String action;
-		public String getSummary() {
-			return summary;
-		}
-		public void setSummary(String summary) {
-			this.summary = summary;
-		}
-		public String getDescription() {
-			return description;
-		}
-		public void setDescription(String description) {
-			this.description = description;
-		}
-		public Date getStartDate() {
-			return startDate;
-		}
-		public void setStartDate(Date startDate) {
-			this.startDate = startDate;
-		}
-		public Date getEndDate() {
-			return endDate;
-		}
-		public void setEndDate(Date endDate) {
-			this.endDate = endDate;
-		}
-		public String getLocation() {
-			return location;
-		}
-		public void setLocation(String location) {
-			this.location = location;
-		}
-		public String getId() {
-			return id;
-		}
-		public void setId(String id) {
-			this.id = id;
-		}
-		public String getAction() {
-			return action;
-		}
-		public void setAction(String action) {
-			this.action = action;
-		}
-		public Date getCreateDate() {
-			return createDate;
-		}
-		public void setCreateDate(Date createDate) {
-			this.createDate = createDate;
-		}
+	public InvitationCoalescer getInvitationCoalescer() {
+		return invitationCoalescer;
 	}
+
+	public void setInvitationCoalescer(InvitationCoalescer invitationCoalescer) {
+		this.invitationCoalescer = invitationCoalescer;
+	}
+
+	public IndexControlPolicy getIndexControlPolicy() {
+		return indexControlPolicy;
+	}
+
+	public void setIndexControlPolicy(IndexControlPolicy indexControlPolicy) {
+		this.indexControlPolicy = indexControlPolicy;
+	}
+
 }
@@ -0,0 +1,421 @@
+package com.metaversant.inbound.invitation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.metaversant.inbound.common.InboundInvitesConstants;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+import org.apache.log4j.Logger;
+
+/**
+ * Processes emails that are still sitting in site inbound invitation folders.
+ *
+ * This catches emails that arrived while the behavior was disabled, that
+ * failed partway, or that were imported without an update event. It can also
+ * be used instead of the behavior altogether.
+ *
+ * Sites are enumerated a page at a time using the site service's canned
+ * query, so the search index is not involved, and up to workerThreads sites
+ * are swept in parallel. Within a site the inbox is paged through in arrival
+ * order, batchSize emails at a time, and each chunk is committed before the
+ * next one is read, so updates for the same UID stay in order and an
+ * interrupted sweep keeps the work it has done. If a chunk fails, its emails
+ * are retried one per transaction and the ones that still fail are logged
+ * and left in the inbox.
+ *
+ * @author jpotts, Metaversant
+ */
+public class InvitationSweeper {
+
+	// Dependencies
+	private InvitationProcessor invitationProcessor;
+	private NodeService nodeService;
+	private SiteService siteService;
+	private FileFolderService fileFolderService;
+	private TransactionService transactionService;
+	private JobLockService jobLockService;
+
+	// Configuration
+	private boolean enabled = false;
+	private int batchSize = 10;
+	private int workerThreads = 2;
+	private int pageSize = 100;
+	private long minAge = 300000;
+
+	// Local Constants
+	private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "inboundInvitesSweeper");
+	private static final long LOCK_TTL = 60000;
+	private static final List<Pair<QName, Boolean>> ARRIVAL_ORDER = Collections.singletonList(new Pair<QName, Boolean>(ContentModel.PROP_CREATED, true));
+
+	private Logger logger = Logger.getLogger(InvitationSweeper.class);
+
+	/**
+	 * Runs a single sweep over every site inbox, unless the sweeper is disabled
+	 * or another sweep is already running.
+	 */
+	public void sweep() {
+		if (!enabled) {
+			if (logger.isDebugEnabled()) logger.debug("Invitation sweeper is disabled");
+			return;
+		}
+
+		final String lockToken;
+		try {
+			lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
+		} catch (LockAcquisitionException lae) {
+			if (logger.isDebugEnabled()) logger.debug("Invitation sweep already running");
+			return;
+		}
+
+		// keep the lock for as long as the sweep runs, and stop if it is lost
+		final AtomicBoolean running = new AtomicBoolean(true);
+		jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, new JobLockRefreshCallback() {
+			@Override
+			public boolean isActive() {
+				return running.get();
+			}
+
+			@Override
+			public void lockReleased() {
+				if (running.compareAndSet(true, false)) {
+					logger.warn("Invitation sweeper lost its lock, stopping after the current chunk");
+				}
+			}
+		});
+
+		try {
+			AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+				@Override
+				public Void doWork() throws Exception {
+					doSweep(running);
+					return null;
+				}
+			});
+		} finally {
+			running.set(false);
+			jobLockService.releaseLock(lockToken, LOCK_QNAME);
+		}
+	}
+
+	private void doSweep(final AtomicBoolean running) {
+		if (logger.isDebugEnabled()) logger.debug("Starting invitation sweep");
+
+		final AtomicInteger processed = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workerThreads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "InboundInvitesSweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			int skipCount = 0;
+			boolean hasMore = true;
+			while (hasMore && running.get()) {
+				final PagingRequest pagingRequest = new PagingRequest(skipCount, pageSize);
+				List<SiteInfo> page = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<List<SiteInfo>>() {
+					@Override
+					public List<SiteInfo> execute() throws Throwable {
+						PagingResults<SiteInfo> sites = siteService.listSites(null, null, pagingRequest);
+						return new ArrayList<SiteInfo>(sites.getPage());
+					}
+				}, true, true);
+				skipCount += page.size();
+				hasMore = page.size() == pageSize;
+
+				// a site's chunks run one after another on the same worker
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (final SiteInfo siteInfo : page) {
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+								@Override
+								public Void doWork() throws Exception {
+									sweepSite(siteInfo.getShortName(), running, processed, failed);
+									return null;
+								}
+							});
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException ee) {
+						logger.error("Problem sweeping site inbox", ee.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			logger.warn("Invitation sweep interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (processed.get() > 0 || failed.get() > 0) {
+			logger.info("Invitation sweep complete: " + processed.get() + " email(s) processed, " + failed.get() + " failed");
+		} else if (logger.isDebugEnabled()) {
+			logger.debug("Invitation sweep complete, nothing to do");
+		}
+	}
+
+	private void sweepSite(String site, AtomicBoolean running, AtomicInteger processed, AtomicInteger failed) {
+		final NodeRef inbox = siteService.getContainer(site, InboundInvitesConstants.INVITATIONS_COMPONENT_ID);
+		if (inbox == null) {
+			return;
+		}
+
+		int skipCount = 0;
+		while (running.get()) {
+			final int skip = skipCount;
+			PendingPage page = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<PendingPage>() {
+				@Override
+				public PendingPage execute() throws Throwable {
+					return getPendingEmails(inbox, skip);
+				}
+			}, true, true);
+
+			if (!page.emails.isEmpty()) {
+				if (logger.isDebugEnabled()) logger.debug("Sweeping " + page.emails.size() + " email(s) for site " + site);
+				int done = processChunk(page.emails);
+				processed.addAndGet(done);
+				failed.addAndGet(page.emails.size() - done);
+			}
+
+			if (page.last) {
+				break;
+			}
+
+			// anything still in the inbox (failed emails, stray files) is skipped from now on
+			skipCount += countRemaining(inbox, page.listed);
+		}
+	}
+
+	/**
+	 * Reads the next chunk of emails waiting in an inbox, oldest first.
+	 * Emails younger than the configured minimum age are left for the
+	 * behavior.
+	 *
+	 * @param inbox     Node reference of the inbound invitations folder.
+	 * @param skipCount Number of files at the start of the inbox to skip.
+	 * @return The emails in the chunk and the files that were looked at.
+	 */
+	private PendingPage getPendingEmails(NodeRef inbox, int skipCount) {
+		PendingPage page = new PendingPage();
+		PagingResults<FileInfo> files = fileFolderService.list(inbox, true, false, null, ARRIVAL_ORDER, new PagingRequest(skipCount, batchSize));
+		page.last = !files.hasMoreItems();
+
+		long cutoff = System.currentTimeMillis() - minAge;
+		for (FileInfo fileInfo : files.getPage()) {
+			Date created = (Date) fileInfo.getProperties().get(ContentModel.PROP_CREATED);
+			if (created != null && created.getTime() > cutoff) {
+				// everything after this arrived later still
+				page.last = true;
+				break;
+			}
+			page.listed.add(fileInfo.getNodeRef());
+			if (nodeService.hasAspect(fileInfo.getNodeRef(), ContentModel.ASPECT_EMAILED)) {
+				page.emails.add(fileInfo.getNodeRef());
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Processes a chunk of emails in one transaction. If that fails, the
+	 * emails are retried one per transaction so that a single bad email does
+	 * not hold up the rest.
+	 *
+	 * @return The number of emails that were processed.
+	 */
+	private int processChunk(final List<NodeRef> emails) {
+		try {
+			transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+				@Override
+				public Void execute() throws Throwable {
+					for (NodeRef emailNodeRef : emails) {
+						processIfPending(emailNodeRef);
+					}
+					return null;
+				}
+			}, false, true);
+			return emails.size();
+		} catch (RuntimeException re) {
+			if (emails.size() == 1) {
+				logger.error("Problem sweeping email: " + emails.get(0), re);
+				return 0;
+			}
+			if (logger.isDebugEnabled()) logger.debug("Chunk failed, retrying its emails one at a time");
+		}
+
+		int done = 0;
+		for (final NodeRef emailNodeRef : emails) {
+			try {
+				transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+					@Override
+					public Void execute() throws Throwable {
+						processIfPending(emailNodeRef);
+						return null;
+					}
+				}, false, true);
+				done++;
+			} catch (RuntimeException re) {
+				logger.error("Problem sweeping email: " + emailNodeRef, re);
+			}
+		}
+		return done;
+	}
+
+	private void processIfPending(NodeRef emailNodeRef) {
+		// the behavior may have beaten us to it
+		if (nodeService.exists(emailNodeRef)) {
+			invitationProcessor.processEmail(emailNodeRef);
+		}
+	}
+
+	private int countRemaining(final NodeRef inbox, final List<NodeRef> listed) {
+		return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Integer>() {
+			@Override
+			public Integer execute() throws Throwable {
+				int remaining = 0;
+				for (NodeRef nodeRef : listed) {
+					if (nodeService.exists(nodeRef) && inbox.equals(nodeService.getPrimaryParent(nodeRef).getParentRef())) {
+						remaining++;
+					}
+				}
+				return remaining;
+			}
+		}, true, true);
+	}
+
+	private static class PendingPage {
+		private final List<NodeRef> listed = new ArrayList<NodeRef>();
+		private final List<NodeRef> emails = new ArrayList<NodeRef>();
+		private boolean last;
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public InvitationProcessor getInvitationProcessor() {
+		return invitationProcessor;
+	}
+
+	public void setInvitationProcessor(InvitationProcessor invitationProcessor) {
+		this.invitationProcessor = invitationProcessor;
+	}
+
+	public NodeService getNodeService() {
+		return nodeService;
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public FileFolderService getFileFolderService() {
+		return fileFolderService;
+	}
+
+	public void setFileFolderService(FileFolderService fileFolderService) {
+		this.fileFolderService = fileFolderService;
+	}
+
+	public TransactionService getTransactionService() {
+		return transactionService;
+	}
+
+	public void setTransactionService(TransactionService transactionService) {
+		this.transactionService = transactionService;
+	}
+
+	public JobLockService getJobLockService() {
+		return jobLockService;
+	}
+
+	public void setJobLockService(JobLockService jobLockService) {
+		this.jobLockService = jobLockService;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public long getMinAge() {
+		return minAge;
+	}
+
+	public void setMinAge(long minAge) {
+		this.minAge = minAge;
+	}
+
+}
@@ -0,0 +1,299 @@
+package com.metaversant.inbound.invitation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.calendar.CalendarModel;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Immutable holder for the calendar metadata parsed out of an invitation.
+ *
+ * Times are kept as epoch milliseconds so instances can be shared between
+ * threads and caches, queued, and compared without copying dates. Instances
+ * are created with a {@link Builder}.
+ *
+ * @author jpotts, Metaversant
+ */
+public final class Invite implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Value of the optional time fields when the invitation does not set them. */
+	public static final long UNSET = Long.MIN_VALUE;
+
+	private final InviteAction action;
+	private final String id;
+	private final int sequence;
+	private final long stamp;
+	private final long created;
+	private final String summary;
+	private final String description;
+	private final String location;
+	private final long start;
+	private final long end;
+	private final String recurrenceRule;
+	private final List<String> attendees;
+
+	private Invite(Builder builder) {
+		this.action = builder.action;
+		this.id = builder.id;
+		this.sequence = builder.sequence;
+		this.stamp = builder.stamp;
+		this.created = builder.created;
+		this.summary = builder.summary;
+		this.description = builder.description;
+		this.location = builder.location;
+		this.start = builder.start;
+		this.end = builder.end;
+		this.recurrenceRule = builder.recurrenceRule;
+		this.attendees = builder.attendees.isEmpty()
+				? Collections.<String>emptyList()
+				: Collections.unmodifiableList(new ArrayList<String>(builder.attendees));
+	}
+
+	/**
+	 * Writes the event properties for this invite into the given map, replacing
+	 * any values already there. Pass in the current properties of an event to
+	 * update them in place.
+	 *
+	 * @param props Map of properties to be set on an event node.
+	 * @return The same map, for convenience.
+	 */
+	public Map<QName, Serializable> writeProperties(Map<QName, Serializable> props) {
+		props.put(CalendarModel.PROP_WHAT, summary);
+		props.put(CalendarModel.PROP_DESCRIPTION, description);
+		props.put(CalendarModel.PROP_FROM_DATE, toDate(start));
+		props.put(CalendarModel.PROP_TO_DATE, toDate(end));
+		props.put(CalendarModel.PROP_WHERE, location);
+		props.put(CalendarModel.PROP_IS_OUTLOOK, false);
+		props.put(CalendarModel.PROP_OUTLOOK_UID, id);
+		return props;
+	}
+
+	/**
+	 * Checks whether an event already holds the properties this invite would
+	 * write, without building a new property map.
+	 *
+	 * @param props Current properties of the event node.
+	 * @return true if writing this invite would not change the event.
+	 */
+	public boolean matches(Map<QName, Serializable> props) {
+		return same(summary, props.get(CalendarModel.PROP_WHAT))
+				&& same(description, props.get(CalendarModel.PROP_DESCRIPTION))
+				&& sameTime(start, props.get(CalendarModel.PROP_FROM_DATE))
+				&& sameTime(end, props.get(CalendarModel.PROP_TO_DATE))
+				&& same(location, props.get(CalendarModel.PROP_WHERE))
+				&& Boolean.FALSE.equals(props.get(CalendarModel.PROP_IS_OUTLOOK))
+				&& same(id, props.get(CalendarModel.PROP_OUTLOOK_UID));
+	}
+
+	/**
+	 * Returns true if this invite is a later revision of the same event than
+	 * the other one: a higher SEQUENCE, or the same SEQUENCE and a later
+	 * DTSTAMP. Ties go to this invite, so the later arrival wins.
+	 *
+	 * @param other Invite for the same UID.
+	 * @return true if this invite should replace the other one.
+	 */
+	public boolean supersedes(Invite other) {
+		if (sequence != other.sequence) {
+			return sequence > other.sequence;
+		}
+		if (stamp != UNSET && other.stamp != UNSET && stamp != other.stamp) {
+			return stamp > other.stamp;
+		}
+		return true;
+	}
+
+	private static Date toDate(long time) {
+		return time == UNSET ? null : new Date(time);
+	}
+
+	private static boolean same(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static boolean sameTime(long time, Object value) {
+		if (value == null) {
+			return time == UNSET;
+		}
+		return value instanceof Date && ((Date) value).getTime() == time;
+	}
+
+	public InviteAction getAction() {
+		return action;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public long getStamp() {
+		return stamp;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public String getSummary() {
+		return summary;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public String getRecurrenceRule() {
+		return recurrenceRule;
+	}
+
+	public List<String> getAttendees() {
+		return attendees;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Invite)) {
+			return false;
+		}
+		Invite other = (Invite) obj;
+		return action == other.action
+				&& sequence == other.sequence
+				&& stamp == other.stamp
+				&& created == other.created
+				&& start == other.start
+				&& end == other.end
+				&& same(id, other.id)
+				&& same(summary, other.summary)
+				&& same(description, other.description)
+				&& same(location, other.location)
+				&& same(recurrenceRule, other.recurrenceRule)
+				&& attendees.equals(other.attendees);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = id == null ? 0 : id.hashCode();
+		result = 31 * result + sequence;
+		result = 31 * result + (int) (stamp ^ (stamp >>> 32));
+		result = 31 * result + (int) (start ^ (start >>> 32));
+		result = 31 * result + (int) (end ^ (end >>> 32));
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "Invite[" + action + " " + id + " seq=" + sequence + "]";
+	}
+
+	/**
+	 * Collects invite fields while an ICS file is being parsed.
+	 */
+	public static class Builder {
+		private InviteAction action;
+		private String id;
+		private int sequence = 0;
+		private long stamp = UNSET;
+		private long created = UNSET;
+		private String summary;
+		private String description;
+		private String location;
+		private long start = UNSET;
+		private long end = UNSET;
+		private String recurrenceRule;
+		private final List<String> attendees = new ArrayList<String>();
+
+		public Builder action(InviteAction action) {
+			this.action = action;
+			return this;
+		}
+
+		public Builder id(String id) {
+			this.id = id;
+			return this;
+		}
+
+		public Builder sequence(int sequence) {
+			this.sequence = sequence;
+			return this;
+		}
+
+		public Builder stamp(Date stamp) {
+			this.stamp = stamp == null ? UNSET : stamp.getTime();
+			return this;
+		}
+
+		public Builder created(Date created) {
+			this.created = created == null ? UNSET : created.getTime();
+			return this;
+		}
+
+		public Builder summary(String summary) {
+			this.summary = summary;
+			return this;
+		}
+
+		public Builder description(String description) {
+			this.description = description;
+			return this;
+		}
+
+		public Builder location(String location) {
+			this.location = location;
+			return this;
+		}
+
+		public Builder start(Date start) {
+			this.start = start == null ? UNSET : start.getTime();
+			return this;
+		}
+
+		public Builder end(Date end) {
+			this.end = end == null ? UNSET : end.getTime();
+			return this;
+		}
+
+		public Builder recurrenceRule(String recurrenceRule) {
+			this.recurrenceRule = recurrenceRule;
+			return this;
+		}
+
+		public Builder attendee(String attendee) {
+			this.attendees.add(attendee);
+			return this;
+		}
+
+		public Invite build() {
+			if (action == null || id == null) {
+				throw new IllegalStateException("An invite needs an action and a UID");
+			}
+			return new Invite(this);
+		}
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.metaversant.inbound.invitation;
+
+/**
+ * The action an invitation asks for in the site calendar.
+ *
+ * @author jpotts, Metaversant
+ */
+public enum InviteAction {
+	/** Create the event, or update it if it already exists (REQUEST, PUBLISH). */
+	CREATE,
+	/** Delete the event if it exists (CANCEL). */
+	DELETE
+}
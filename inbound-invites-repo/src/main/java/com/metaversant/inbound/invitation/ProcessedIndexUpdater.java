@@ -0,0 +1,346 @@
+package com.metaversant.inbound.invitation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.metaversant.inbound.common.InboundInvitesConstants;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.site.SiteInfo;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * Applies the index control policy for processed invitations to the
+ * processed folders that already exist, for sites that were receiving
+ * invitations before the policy was configured or changed.
+ *
+ * Each per-email folder, together with the email and attachments inside it,
+ * is one unit of work, as is the processed folder itself. The per-email
+ * folders are paged through, so only a page of them is held at a time. Work
+ * is committed in batches and the job pauses between batches so that the
+ * index tracker is not flooded. Nodes that already follow the policy are
+ * skipped, so the job can safely be run again.
+ *
+ * The job runs in the background under a cluster-wide job lock, so only one
+ * update runs at a time.
+ *
+ * @author jpotts, Metaversant
+ */
+public class ProcessedIndexUpdater {
+
+	// Dependencies
+	private IndexControlPolicy indexControlPolicy;
+	private FileFolderService fileFolderService;
+	private NodeService nodeService;
+	private SiteService siteService;
+	private TransactionService transactionService;
+	private JobLockService jobLockService;
+
+	// Configuration
+	private int batchSize = 100;
+	private int workerThreads = 1;
+	private long throttleDelay = 1000;
+
+	// Local Constants
+	private static final int PAGE_SIZE = 100;
+	private static final int LOGGING_INTERVAL = 1000;
+	private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "inboundInvitesProcessedIndexUpdate");
+	private static final long LOCK_TTL = 60000;
+
+	private Logger logger = Logger.getLogger(ProcessedIndexUpdater.class);
+
+	/**
+	 * Starts applying the processed index policy to one site, or to every
+	 * site, in the background.
+	 *
+	 * @param site The short name of the Share site, or null for all sites.
+	 * @return true if the update was started, false if one is already running.
+	 */
+	public boolean update(final String site) {
+		final String lockToken;
+		try {
+			lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
+		} catch (LockAcquisitionException lae) {
+			if (logger.isDebugEnabled()) logger.debug("Processed index update already running");
+			return false;
+		}
+
+		// keep the lock for as long as the update runs, and stop if it is lost
+		final AtomicBoolean running = new AtomicBoolean(true);
+		jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, new JobLockRefreshCallback() {
+			@Override
+			public boolean isActive() {
+				return running.get();
+			}
+
+			@Override
+			public void lockReleased() {
+				if (running.compareAndSet(true, false)) {
+					logger.warn("Processed index update lost its lock, stopping after the current batch");
+				}
+			}
+		});
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					AuthenticationUtil.runAsSystem(new RunAsWork<Void>() {
+						@Override
+						public Void doWork() throws Exception {
+							doUpdate(site, running);
+							return null;
+						}
+					});
+				} catch (Throwable t) {
+					logger.error("Problem applying processed index policy", t);
+				} finally {
+					running.set(false);
+					jobLockService.releaseLock(lockToken, LOCK_QNAME);
+				}
+			}
+		}, "InboundInvitesProcessedIndexUpdate");
+		thread.setDaemon(true);
+		try {
+			thread.start();
+		} catch (RuntimeException re) {
+			running.set(false);
+			jobLockService.releaseLock(lockToken, LOCK_QNAME);
+			throw re;
+		}
+		return true;
+	}
+
+	private void doUpdate(String site, AtomicBoolean running) {
+		logger.info("Applying processed index policy to " + (site == null ? "all sites" : "site " + site));
+
+		BatchProcessor<NodeRef> processor = new BatchProcessor<NodeRef>(
+				"InboundInvitesProcessedIndexUpdate",
+				transactionService.getRetryingTransactionHelper(),
+				new ProcessedFolderWorkProvider(site, running),
+				workerThreads,
+				batchSize,
+				null,
+				LogFactory.getLog(ProcessedIndexUpdater.class),
+				LOGGING_INTERVAL
+		);
+		processor.process(new BatchProcessWorkerAdaptor<NodeRef>() {
+			@Override
+			public void beforeProcess() throws Throwable {
+				AuthenticationUtil.setRunAsUserSystem();
+			}
+
+			@Override
+			public void afterProcess() throws Throwable {
+				AuthenticationUtil.clearCurrentSecurityContext();
+				if (throttleDelay > 0) {
+					Thread.sleep(throttleDelay);
+				}
+			}
+
+			@Override
+			public void process(NodeRef folder) throws Throwable {
+				if (!nodeService.exists(folder)) {
+					return;
+				}
+				indexControlPolicy.reapplyToProcessed(folder);
+				// per-email folders are units of work of their own
+				for (FileInfo file : fileFolderService.listFiles(folder)) {
+					indexControlPolicy.reapplyToProcessed(file.getNodeRef());
+				}
+			}
+		}, true);
+
+		logger.info("Processed index policy applied: " + processor.getSuccessfullyProcessedEntries() + " folder(s), " + processor.getTotalErrors() + " error(s)");
+	}
+
+	/**
+	 * Hands out the processed folders one site at a time, and each site's
+	 * per-email folders a page at a time.
+	 */
+	private class ProcessedFolderWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+		private final Deque<String> sites = new ArrayDeque<String>();
+		private final AtomicBoolean running;
+		private boolean moreSites;
+		private int siteSkipCount = 0;
+		private NodeRef processed;
+		private int folderSkipCount = 0;
+
+		ProcessedFolderWorkProvider(String site, AtomicBoolean running) {
+			this.running = running;
+			if (site != null) {
+				sites.add(site);
+			}
+			moreSites = site == null;
+		}
+
+		@Override
+		public int getTotalEstimatedWorkSize() {
+			return -1;
+		}
+
+		@Override
+		public Collection<NodeRef> getNextWork() {
+			return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<List<NodeRef>>() {
+				@Override
+				public List<NodeRef> execute() throws Throwable {
+					return nextWork();
+				}
+			}, true, true);
+		}
+
+		private List<NodeRef> nextWork() {
+			while (running.get()) {
+				// the next page of per-email folders for the current site
+				if (processed != null) {
+					PagingResults<FileInfo> folders = fileFolderService.list(processed, false, true, null, null, new PagingRequest(folderSkipCount, PAGE_SIZE));
+					List<FileInfo> page = folders.getPage();
+					folderSkipCount += page.size();
+					if (!folders.hasMoreItems() || page.isEmpty()) {
+						processed = null;
+					}
+					if (!page.isEmpty()) {
+						List<NodeRef> work = new ArrayList<NodeRef>(page.size());
+						for (FileInfo folder : page) {
+							work.add(folder.getNodeRef());
+						}
+						return work;
+					}
+					continue;
+				}
+
+				// the processed folder of the next site
+				if (!sites.isEmpty()) {
+					processed = getProcessedFolder(sites.poll());
+					folderSkipCount = 0;
+					if (processed != null) {
+						return Collections.singletonList(processed);
+					}
+					continue;
+				}
+
+				// the next page of sites
+				if (!moreSites) {
+					return Collections.emptyList();
+				}
+				PagingResults<SiteInfo> results = siteService.listSites(null, null, new PagingRequest(siteSkipCount, PAGE_SIZE));
+				List<SiteInfo> page = results.getPage();
+				siteSkipCount += page.size();
+				moreSites = results.hasMoreItems() && !page.isEmpty();
+				for (SiteInfo siteInfo : page) {
+					sites.add(siteInfo.getShortName());
+				}
+			}
+			return Collections.emptyList();
+		}
+
+		private NodeRef getProcessedFolder(String siteId) {
+			NodeRef inbox = siteService.getContainer(siteId, InboundInvitesConstants.INVITATIONS_COMPONENT_ID);
+			if (inbox == null) {
+				return null;
+			}
+			return nodeService.getChildByName(inbox, ContentModel.ASSOC_CONTAINS, InboundInvitesConstants.PROCESSED_FOLDER_NAME);
+		}
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public IndexControlPolicy getIndexControlPolicy() {
+		return indexControlPolicy;
+	}
+
+	public void setIndexControlPolicy(IndexControlPolicy indexControlPolicy) {
+		this.indexControlPolicy = indexControlPolicy;
+	}
+
+	public FileFolderService getFileFolderService() {
+		return fileFolderService;
+	}
+
+	public void setFileFolderService(FileFolderService fileFolderService) {
+		this.fileFolderService = fileFolderService;
+	}
+
+	public NodeService getNodeService() {
+		return nodeService;
+	}
+
+	public void setNodeService(NodeService nodeService) {
+		this.nodeService = nodeService;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+	public TransactionService getTransactionService() {
+		return transactionService;
+	}
+
+	public void setTransactionService(TransactionService transactionService) {
+		this.transactionService = transactionService;
+	}
+
+	public JobLockService getJobLockService() {
+		return jobLockService;
+	}
+
+	public void setJobLockService(JobLockService jobLockService) {
+		this.jobLockService = jobLockService;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	public long getThrottleDelay() {
+		return throttleDelay;
+	}
+
+	public void setThrottleDelay(long throttleDelay) {
+		this.throttleDelay = throttleDelay;
+	}
+
+}
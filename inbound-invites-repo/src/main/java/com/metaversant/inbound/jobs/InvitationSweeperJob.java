@@ -0,0 +1,30 @@
+package com.metaversant.inbound.jobs;
+
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import com.metaversant.inbound.invitation.InvitationSweeper;
+
+/**
+ * Scheduled job that asks the invitation sweeper to process any emails left
+ * in the site inbound invitation folders.
+ *
+ * @author jpotts, Metaversant
+ */
+public class InvitationSweeperJob implements Job {
+
+	public static final String SWEEPER_KEY = "invitationSweeper";
+
+	@Override
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		JobDataMap jobData = context.getJobDetail().getJobDataMap();
+		Object sweeper = jobData.get(SWEEPER_KEY);
+		if (!(sweeper instanceof InvitationSweeper)) {
+			throw new JobExecutionException("Missing job data: " + SWEEPER_KEY);
+		}
+		((InvitationSweeper) sweeper).sweep();
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.metaversant.inbound.webscripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.service.cmr.site.SiteService;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import com.metaversant.inbound.invitation.CalendarRebuilder;
+import com.metaversant.inbound.invitation.CalendarRebuilder.RebuildReport;
+
+/**
+ * Web script that rebuilds a site calendar from the site's processed
+ * invitations.
+ *
+ * @author jpotts, Metaversant
+ */
+public class CalendarRebuildWebScript extends DeclarativeWebScript {
+
+	// Dependencies
+	private CalendarRebuilder calendarRebuilder;
+	private SiteService siteService;
+
+	private Logger logger = Logger.getLogger(CalendarRebuildWebScript.class);
+
+	@Override
+	protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+		String site = req.getParameter("site");
+		if (site == null || site.isEmpty()) {
+			throw new WebScriptException(Status.STATUS_BAD_REQUEST, "The site parameter is required");
+		}
+		if (siteService.getSite(site) == null) {
+			throw new WebScriptException(Status.STATUS_NOT_FOUND, "Site not found: " + site);
+		}
+		boolean dryRun = Boolean.parseBoolean(req.getParameter("dryRun"));
+
+		if (logger.isDebugEnabled()) logger.debug("Calendar rebuild requested for site: " + site);
+		RebuildReport report = calendarRebuilder.rebuild(site, dryRun);
+
+		Map<String, Object> model = new HashMap<String, Object>();
+		model.put("report", report);
+		return model;
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public CalendarRebuilder getCalendarRebuilder() {
+		return calendarRebuilder;
+	}
+
+	public void setCalendarRebuilder(CalendarRebuilder calendarRebuilder) {
+		this.calendarRebuilder = calendarRebuilder;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.metaversant.inbound.webscripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.service.cmr.site.SiteService;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import com.metaversant.inbound.invitation.ProcessedIndexUpdater;
+
+/**
+ * Web script that starts applying the index control policy to existing
+ * processed invitations, for one site or for every site. The update runs in
+ * the background, so the response only says that it was started.
+ *
+ * @author jpotts, Metaversant
+ */
+public class IndexPolicyWebScript extends DeclarativeWebScript {
+
+	// Dependencies
+	private ProcessedIndexUpdater processedIndexUpdater;
+	private SiteService siteService;
+
+	private Logger logger = Logger.getLogger(IndexPolicyWebScript.class);
+
+	@Override
+	protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+		String site = req.getParameter("site");
+		if (site != null && site.isEmpty()) {
+			site = null;
+		}
+		if (site != null && siteService.getSite(site) == null) {
+			throw new WebScriptException(Status.STATUS_NOT_FOUND, "Site not found: " + site);
+		}
+
+		if (logger.isDebugEnabled()) logger.debug("Index policy update requested for " + (site == null ? "all sites" : "site: " + site));
+		if (!processedIndexUpdater.update(site)) {
+			throw new WebScriptException(Status.STATUS_CONFLICT, "An index policy update is already running");
+		}
+
+		status.setCode(Status.STATUS_ACCEPTED);
+		Map<String, Object> model = new HashMap<String, Object>();
+		if (site != null) {
+			model.put("site", site);
+		}
+		model.put("started", true);
+		return model;
+	}
+
+	// *******************
+	// GETTERS AND SETTERS
+	// *******************
+
+	public ProcessedIndexUpdater getProcessedIndexUpdater() {
+		return processedIndexUpdater;
+	}
+
+	public void setProcessedIndexUpdater(ProcessedIndexUpdater processedIndexUpdater) {
+		this.processedIndexUpdater = processedIndexUpdater;
+	}
+
+	public SiteService getSiteService() {
+		return siteService;
+	}
+
+	public void setSiteService(SiteService siteService) {
+		this.siteService = siteService;
+	}
+
+}
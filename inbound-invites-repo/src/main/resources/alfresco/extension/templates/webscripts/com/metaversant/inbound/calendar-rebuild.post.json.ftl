@@ -0,0 +1,18 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+    "site": "${report.site}",
+    "dryRun": ${report.dryRun?string},
+    "invitations": ${report.invitations?c},
+    "events": ${report.events?c},
+    "created": ${report.created?c},
+    "updated": ${report.updated?c},
+    "deleted": ${report.deleted?c},
+    "unchanged": ${report.unchanged?c},
+    "failed": ${report.failed?c},
+    "changes": [
+    <#list report.changes as change>
+        "${change}"<#if change_has_next>,</#if>
+    </#list>
+    ]
+}
+</#escape>
@@ -0,0 +1,6 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+    <#if site??>"site": "${site}",</#if>
+    "started": ${started?c}
+}
+</#escape>
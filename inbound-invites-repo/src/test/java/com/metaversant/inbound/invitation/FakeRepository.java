@@ -0,0 +1,308 @@
+package com.metaversant.inbound.invitation;
+
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.calendar.CalendarModel;
+import org.alfresco.repo.site.SiteModel;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.AssociationRef;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.ResultSetRow;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Small in-memory stand-in for the node, site, file folder, content and
+ * search services, just big enough to run an invitation through the
+ * processor. Methods are matched by name and argument count by
+ * {@link ServiceCallCounter}.
+ *
+ * @author jpotts, Metaversant
+ */
+class FakeRepository {
+
+	private final Map<NodeRef, Node> nodes = new HashMap<NodeRef, Node>();
+	private final Map<String, Map<String, NodeRef>> containers = new HashMap<String, Map<String, NodeRef>>();
+	private final List<NodeRef> searchResults = new ArrayList<NodeRef>();
+	private int nextId = 0;
+
+	private static class Node {
+		private NodeRef parent;
+		private QName type;
+		private final Set<QName> aspects = new HashSet<QName>();
+		private final Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+		private final List<NodeRef> attachments = new ArrayList<NodeRef>();
+		private String content;
+	}
+
+	// *******************
+	// FIXTURES
+	// *******************
+
+	NodeRef addSite(String site) {
+		NodeRef siteNodeRef = addNode(null, SiteModel.TYPE_SITE, site);
+		containers.put(site, new HashMap<String, NodeRef>());
+		return siteNodeRef;
+	}
+
+	NodeRef addContainer(String site, String componentId, String name) {
+		NodeRef siteNodeRef = null;
+		for (Map.Entry<NodeRef, Node> entry : nodes.entrySet()) {
+			if (entry.getValue().parent == null && site.equals(entry.getValue().props.get(ContentModel.PROP_NAME))) {
+				siteNodeRef = entry.getKey();
+			}
+		}
+		NodeRef container = addNode(siteNodeRef, ContentModel.TYPE_FOLDER, name);
+		containers.get(site).put(componentId, container);
+		return container;
+	}
+
+	NodeRef addFolder(NodeRef parent, String name) {
+		return addNode(parent, ContentModel.TYPE_FOLDER, name);
+	}
+
+	NodeRef addEmail(NodeRef folder, String name) {
+		NodeRef email = addNode(folder, ContentModel.TYPE_CONTENT, name);
+		nodes.get(email).aspects.add(ContentModel.ASPECT_EMAILED);
+		nodes.get(email).props.put(ContentModel.PROP_ORIGINATOR, "organizer@example.com");
+		return email;
+	}
+
+	NodeRef addAttachment(NodeRef email, String name, String mimetype, String content) {
+		NodeRef attachment = addNode(nodes.get(email).parent, ContentModel.TYPE_CONTENT, name);
+		nodes.get(attachment).props.put(ContentModel.PROP_CONTENT, new ContentData(null, mimetype, content.length(), "UTF-8"));
+		nodes.get(attachment).content = content;
+		nodes.get(email).attachments.add(attachment);
+		return attachment;
+	}
+
+	NodeRef addEvent(NodeRef calendar, Map<QName, Serializable> props) {
+		NodeRef event = addNode(calendar, CalendarModel.TYPE_EVENT, "event.ics");
+		nodes.get(event).props.putAll(props);
+		searchResults.add(event);
+		return event;
+	}
+
+	Map<QName, Serializable> props(NodeRef nodeRef) {
+		return nodes.get(nodeRef).props;
+	}
+
+	NodeRef parentOf(NodeRef nodeRef) {
+		return nodes.get(nodeRef).parent;
+	}
+
+	int countChildren(NodeRef parent, QName type) {
+		int count = 0;
+		for (Node node : nodes.values()) {
+			if (parent.equals(node.parent) && type.equals(node.type)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private NodeRef addNode(NodeRef parent, QName type, String name) {
+		NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-" + (++nextId));
+		Node node = new Node();
+		node.parent = parent;
+		node.type = type;
+		node.props.put(ContentModel.PROP_NAME, name);
+		nodes.put(nodeRef, node);
+		return nodeRef;
+	}
+
+	// *******************
+	// NODE SERVICE
+	// *******************
+
+	public boolean exists(NodeRef nodeRef) {
+		return nodes.containsKey(nodeRef);
+	}
+
+	public boolean hasAspect(NodeRef nodeRef, QName aspect) {
+		return nodes.get(nodeRef).aspects.contains(aspect);
+	}
+
+	public QName getType(NodeRef nodeRef) {
+		return nodes.get(nodeRef).type;
+	}
+
+	public Serializable getProperty(NodeRef nodeRef, QName name) {
+		return nodes.get(nodeRef).props.get(name);
+	}
+
+	public Map<QName, Serializable> getProperties(NodeRef nodeRef) {
+		return new HashMap<QName, Serializable>(nodes.get(nodeRef).props);
+	}
+
+	public void setProperties(NodeRef nodeRef, Map<QName, Serializable> props) {
+		nodes.get(nodeRef).props.clear();
+		nodes.get(nodeRef).props.putAll(props);
+	}
+
+	public ChildAssociationRef getPrimaryParent(NodeRef nodeRef) {
+		Node node = nodes.get(nodeRef);
+		QName name = QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, (String) node.props.get(ContentModel.PROP_NAME));
+		return new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, node.parent, name, nodeRef);
+	}
+
+	public List<AssociationRef> getTargetAssocs(NodeRef nodeRef, Object pattern) {
+		List<AssociationRef> assocs = new ArrayList<AssociationRef>();
+		for (NodeRef attachment : nodes.get(nodeRef).attachments) {
+			assocs.add(new AssociationRef(nodeRef, ContentModel.ASSOC_ATTACHMENTS, attachment));
+		}
+		return assocs;
+	}
+
+	public NodeRef getChildByName(NodeRef parent, QName assocType, String name) {
+		for (Map.Entry<NodeRef, Node> entry : nodes.entrySet()) {
+			if (parent.equals(entry.getValue().parent) && name.equals(entry.getValue().props.get(ContentModel.PROP_NAME))) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	public ChildAssociationRef createNode(NodeRef parent, QName assocType, QName assocName, QName type, Map<QName, Serializable> props) {
+		NodeRef nodeRef = addNode(parent, type, (String) props.get(ContentModel.PROP_NAME));
+		nodes.get(nodeRef).props.putAll(props);
+		return new ChildAssociationRef(assocType, parent, assocName, nodeRef);
+	}
+
+	public void addAspect(NodeRef nodeRef, QName aspect, Map<QName, Serializable> props) {
+		nodes.get(nodeRef).aspects.add(aspect);
+		if (props != null) {
+			nodes.get(nodeRef).props.putAll(props);
+		}
+	}
+
+	public void removeAspect(NodeRef nodeRef, QName aspect) {
+		nodes.get(nodeRef).aspects.remove(aspect);
+	}
+
+	public void deleteNode(NodeRef nodeRef) {
+		nodes.remove(nodeRef);
+		searchResults.remove(nodeRef);
+	}
+
+	// *******************
+	// SITE SERVICE
+	// *******************
+
+	public String getSiteShortName(NodeRef nodeRef) {
+		NodeRef current = nodeRef;
+		while (nodes.get(current).parent != null) {
+			current = nodes.get(current).parent;
+		}
+		Node site = nodes.get(current);
+		return SiteModel.TYPE_SITE.equals(site.type) ? (String) site.props.get(ContentModel.PROP_NAME) : null;
+	}
+
+	public NodeRef getContainer(String site, String componentId) {
+		return containers.get(site).get(componentId);
+	}
+
+	public NodeRef createContainer(String site, String componentId, QName type, Map<QName, Serializable> props) {
+		return addContainer(site, componentId, (String) props.get(ContentModel.PROP_NAME));
+	}
+
+	// *******************
+	// FILE FOLDER SERVICE
+	// *******************
+
+	public FileInfo create(NodeRef parent, String name, QName type) {
+		return fileInfo(addNode(parent, type, name));
+	}
+
+	public FileInfo move(NodeRef nodeRef, NodeRef target, String name) {
+		nodes.get(nodeRef).parent = target;
+		return fileInfo(nodeRef);
+	}
+
+	// *******************
+	// CONTENT SERVICE
+	// *******************
+
+	public ContentReader getReader(NodeRef nodeRef, QName property) {
+		final String content = nodes.get(nodeRef).content;
+		return (ContentReader) Proxy.newProxyInstance(ContentReader.class.getClassLoader(), new Class<?>[] { ContentReader.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getContentInputStream")) {
+					return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+				}
+				if (method.getName().equals("getContentString") && args != null && args.length == 1) {
+					return content.substring(0, Math.min(content.length(), (Integer) args[0]));
+				}
+				if (method.getName().equals("getContentString")) {
+					return content;
+				}
+				throw new UnsupportedOperationException("ContentReader." + method.getName());
+			}
+		});
+	}
+
+	// *******************
+	// SEARCH SERVICE
+	// *******************
+
+	public ResultSet query(StoreRef store, String language, String query) {
+		final List<ResultSetRow> rows = new ArrayList<ResultSetRow>();
+		for (final NodeRef nodeRef : searchResults) {
+			rows.add((ResultSetRow) Proxy.newProxyInstance(ResultSetRow.class.getClassLoader(), new Class<?>[] { ResultSetRow.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("getNodeRef")) {
+						return nodeRef;
+					}
+					throw new UnsupportedOperationException("ResultSetRow." + method.getName());
+				}
+			}));
+		}
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("iterator")) {
+					return rows.iterator();
+				}
+				if (method.getName().equals("close")) {
+					return null;
+				}
+				throw new UnsupportedOperationException("ResultSet." + method.getName());
+			}
+		});
+	}
+
+	private FileInfo fileInfo(final NodeRef nodeRef) {
+		return (FileInfo) Proxy.newProxyInstance(FileInfo.class.getClassLoader(), new Class<?>[] { FileInfo.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getNodeRef")) {
+					return nodeRef;
+				}
+				if (method.getName().equals("getProperties")) {
+					return getProperties(nodeRef);
+				}
+				throw new UnsupportedOperationException("FileInfo." + method.getName());
+			}
+		});
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.metaversant.inbound.invitation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.metaversant.inbound.behaviors.OnEmailedNodeUpdate;
+import com.metaversant.inbound.behaviors.OnSiteNodeUpdate;
+import com.metaversant.inbound.common.InboundInvitesConstants;
+import com.metaversant.inbound.invitation.ServiceCallCounter.Kind;
+import org.alfresco.repo.calendar.CalendarModel;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.site.SiteService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Guards the number of repository round-trips made while an inbound email is
+ * handled. Every service injected into the invitation processor and the two
+ * behaviors is wrapped in a counting proxy, and each scenario has a budget of
+ * reads, writes, searches and content reads.
+ *
+ * If a change needs more calls, raise the budget in the same commit so the
+ * extra cost is a deliberate decision.
+ *
+ * @author jpotts, Metaversant
+ */
+public class InvitationProcessorRoundTripBudgetTest {
+
+	private static final String SITE = "budget-site";
+	private static final String UID = "budget-test@example.com";
+
+	private FakeRepository repository;
+	private ServiceCallCounter counter;
+	private OnEmailedNodeUpdate onEmailedNodeUpdate;
+	private OnSiteNodeUpdate onSiteNodeUpdate;
+
+	private NodeRef siteNodeRef;
+	private NodeRef inbox;
+	private NodeRef calendar;
+	private NodeRef processed;
+
+	@Before
+	public void setUp() {
+		repository = new FakeRepository();
+		counter = new ServiceCallCounter(repository);
+
+		NodeService nodeService = counter.wrap(NodeService.class);
+		SiteService siteService = counter.wrap(SiteService.class);
+
+		IndexControlPolicy indexControlPolicy = new IndexControlPolicy();
+		indexControlPolicy.setNodeService(nodeService);
+
+		InvitationProcessor invitationProcessor = new InvitationProcessor();
+		invitationProcessor.setNodeService(nodeService);
+		invitationProcessor.setSiteService(siteService);
+		invitationProcessor.setContentService(counter.wrap(ContentService.class));
+		invitationProcessor.setSearchService(counter.wrap(SearchService.class));
+		invitationProcessor.setFileFolderService(counter.wrap(FileFolderService.class));
+		invitationProcessor.setIndexControlPolicy(indexControlPolicy);
+
+		onEmailedNodeUpdate = new OnEmailedNodeUpdate();
+		onEmailedNodeUpdate.setNodeService(nodeService);
+		onEmailedNodeUpdate.setInvitationProcessor(invitationProcessor);
+
+		onSiteNodeUpdate = new OnSiteNodeUpdate();
+		onSiteNodeUpdate.setNodeService(nodeService);
+		onSiteNodeUpdate.setSiteService(siteService);
+
+		// a site that has already received invitations
+		siteNodeRef = repository.addSite(SITE);
+		inbox = repository.addContainer(SITE, InboundInvitesConstants.INVITATIONS_COMPONENT_ID, InboundInvitesConstants.INVITATIONS_FOLDER_NAME);
+		calendar = repository.addContainer(SITE, InvitationProcessor.CALENDAR_COMPONENT_ID, "calendar");
+		processed = repository.addFolder(inbox, InboundInvitesConstants.PROCESSED_FOLDER_NAME);
+	}
+
+	@Test
+	public void createInvite() {
+		NodeRef email = addInvite("REQUEST", "Planning");
+
+		onEmailedNodeUpdate.onUpdateNode(email);
+
+		assertEquals(1, repository.countChildren(calendar, CalendarModel.TYPE_EVENT));
+		assertProcessed(email);
+		assertWithinBudget("create", 13, 5, 1, 1);
+	}
+
+	@Test
+	public void updateInvite() {
+		NodeRef event = addEvent("Planning");
+		NodeRef email = addInvite("REQUEST", "Planning, moved");
+
+		onEmailedNodeUpdate.onUpdateNode(email);
+
+		assertEquals("Planning, moved", repository.props(event).get(CalendarModel.PROP_WHAT));
+		assertProcessed(email);
+		assertWithinBudget("update", 13, 4, 1, 1);
+	}
+
+	@Test
+	public void deleteInvite() {
+		addEvent("Planning");
+		NodeRef email = addInvite("CANCEL", "Planning");
+
+		onEmailedNodeUpdate.onUpdateNode(email);
+
+		assertEquals(0, repository.countChildren(calendar, CalendarModel.TYPE_EVENT));
+		assertProcessed(email);
+		assertWithinBudget("delete", 12, 4, 1, 1);
+	}
+
+	@Test
+	public void ignoredEmail() {
+		// the behavior fires again when a processed email is moved
+		NodeRef folder = repository.addFolder(processed, "already-processed");
+		NodeRef email = repository.addEmail(folder, "invite.eml");
+		repository.addAttachment(email, "invite.ics", "text/calendar", ics("REQUEST", "Planning"));
+
+		onEmailedNodeUpdate.onUpdateNode(email);
+
+		assertEquals(folder, repository.parentOf(email));
+		assertWithinBudget("ignored", 4, 0, 0, 0);
+	}
+
+	@Test
+	public void nonCalendarEmail() {
+		NodeRef email = repository.addEmail(inbox, "agenda.eml");
+		repository.addAttachment(email, "agenda.pdf", "application/pdf", "%PDF-1.4");
+
+		onEmailedNodeUpdate.onUpdateNode(email);
+
+		assertEquals(0, repository.countChildren(calendar, CalendarModel.TYPE_EVENT));
+		assertProcessed(email);
+		assertWithinBudget("non-calendar", 10, 3, 0, 0);
+	}
+
+	@Test
+	public void siteUpdate() {
+		onSiteNodeUpdate.onUpdateNode(siteNodeRef);
+
+		assertTrue(repository.props(inbox).containsValue(SITE));
+		assertWithinBudget("site update", 3, 1, 0, 0);
+	}
+
+	private NodeRef addInvite(String method, String summary) {
+		NodeRef email = repository.addEmail(inbox, "invite.eml");
+		repository.addAttachment(email, "invite.ics", "text/calendar", ics(method, summary));
+		return email;
+	}
+
+	private NodeRef addEvent(String summary) {
+		Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+		props.put(CalendarModel.PROP_WHAT, summary);
+		props.put(CalendarModel.PROP_IS_OUTLOOK, false);
+		props.put(CalendarModel.PROP_OUTLOOK_UID, UID);
+		return repository.addEvent(calendar, props);
+	}
+
+	private void assertProcessed(NodeRef email) {
+		NodeRef folder = repository.parentOf(email);
+		assertNotEquals(inbox, folder);
+		assertEquals(processed, repository.parentOf(folder));
+	}
+
+	private void assertWithinBudget(String scenario, int reads, int writes, int searches, int contentReads) {
+		assertWithin(scenario, Kind.READ, reads);
+		assertWithin(scenario, Kind.WRITE, writes);
+		assertWithin(scenario, Kind.SEARCH, searches);
+		assertWithin(scenario, Kind.CONTENT, contentReads);
+	}
+
+	private void assertWithin(String scenario, Kind kind, int budget) {
+		int actual = counter.count(kind);
+		assertTrue(scenario + ": " + actual + " " + kind + " call(s) exceed the budget of " + budget + ", calls made: " + counter.getCalls(), actual <= budget);
+	}
+
+	private static String ics(String method, String summary) {
+		return "BEGIN:VCALENDAR\r\n"
+				+ "VERSION:2.0\r\n"
+				+ "PRODID:-//Metaversant//Inbound Invites Test//EN\r\n"
+				+ "METHOD:" + method + "\r\n"
+				+ "BEGIN:VEVENT\r\n"
+				+ "UID:" + UID + "\r\n"
+				+ "SEQUENCE:1\r\n"
+				+ "DTSTAMP:20261020T120000Z\r\n"
+				+ "DTSTART:20261021T150000Z\r\n"
+				+ "DTEND:20261021T160000Z\r\n"
+				+ "SUMMARY:" + summary + "\r\n"
+				+ "END:VEVENT\r\n"
+				+ "END:VCALENDAR\r\n";
+	}
+
+}
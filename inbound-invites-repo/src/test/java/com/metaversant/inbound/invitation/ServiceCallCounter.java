@@ -0,0 +1,103 @@
+package com.metaversant.inbound.invitation;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.search.SearchService;
+
+/**
+ * Wraps repository services in proxies that count every call by kind before
+ * handing it to a fake that answers it.
+ *
+ * The fake does not implement the service interfaces. Calls are matched to a
+ * public method of the fake with the same name and number of arguments, and a
+ * call the fake cannot answer fails the test, so a new repository call cannot
+ * slip in unnoticed.
+ *
+ * @author jpotts, Metaversant
+ */
+class ServiceCallCounter {
+
+	enum Kind {
+		READ, WRITE, SEARCH, CONTENT
+	}
+
+	private final Object fake;
+	private final Map<Kind, Integer> counts = new EnumMap<Kind, Integer>(Kind.class);
+	private final List<String> calls = new ArrayList<String>();
+
+	ServiceCallCounter(Object fake) {
+		this.fake = fake;
+		reset();
+	}
+
+	/**
+	 * Returns a counting proxy for the given service interface.
+	 */
+	<T> T wrap(final Class<T> service) {
+		return service.cast(Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[] { service }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					return method.invoke(this, args);
+				}
+				Kind kind = classify(service, method);
+				counts.put(kind, counts.get(kind) + 1);
+				calls.add(kind + " " + service.getSimpleName() + "." + method.getName());
+				return answer(service, method, args);
+			}
+		}));
+	}
+
+	int count(Kind kind) {
+		return counts.get(kind);
+	}
+
+	List<String> getCalls() {
+		return calls;
+	}
+
+	void reset() {
+		for (Kind kind : Kind.values()) {
+			counts.put(kind, 0);
+		}
+		calls.clear();
+	}
+
+	private Kind classify(Class<?> service, Method method) {
+		if (service == SearchService.class) {
+			return Kind.SEARCH;
+		}
+		if (service == ContentService.class) {
+			return Kind.CONTENT;
+		}
+		String name = method.getName();
+		if (name.startsWith("get") || name.startsWith("exists") || name.startsWith("has")
+				|| name.startsWith("list") || name.startsWith("is") || name.startsWith("resolve")) {
+			return Kind.READ;
+		}
+		return Kind.WRITE;
+	}
+
+	private Object answer(Class<?> service, Method method, Object[] args) throws Throwable {
+		int arity = args == null ? 0 : args.length;
+		for (Method candidate : fake.getClass().getMethods()) {
+			if (candidate.getName().equals(method.getName()) && candidate.getParameterTypes().length == arity) {
+				try {
+					return candidate.invoke(fake, args);
+				} catch (InvocationTargetException ite) {
+					throw ite.getCause();
+				}
+			}
+		}
+		throw new UnsupportedOperationException("Fake repository does not answer " + service.getSimpleName() + "." + method.getName());
+	}
+
+}